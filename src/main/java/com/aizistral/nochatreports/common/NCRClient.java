@@ -1,6 +1,10 @@
 package com.aizistral.nochatreports.common;
 
+import com.aizistral.nochatreports.common.compression.CompressionArbiter;
 import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.core.ChunkReassembler;
+import com.aizistral.nochatreports.common.core.ChunkSender;
+import com.aizistral.nochatreports.common.core.EncryptionWarmup;
 import com.aizistral.nochatreports.common.core.ServerDataExtension;
 import com.aizistral.nochatreports.common.core.ServerSafetyLevel;
 import com.aizistral.nochatreports.common.core.ServerSafetyState;
@@ -17,7 +21,7 @@ import net.minecraft.network.chat.Component;
 
 @Environment(EnvType.CLIENT)
 public class NCRClient {
-	private static boolean signingKeysPresent = false;
+	private static volatile SigningKeysState signingKeys = SigningKeysState.UNKNOWN;
 
 	private NCRClient() {
 		throw new IllegalStateException("Can't touch this");
@@ -28,6 +32,8 @@ public class NCRClient {
 
 		ClientEvents.DISCONNECT.register(NCRClient::onDisconnect);
 		ClientEvents.PLAY_READY.register(NCRClient::onPlayReady);
+
+		EncryptionWarmup.start();
 	}
 
 	private static void onDisconnect(Minecraft client) {
@@ -39,6 +45,9 @@ public class NCRClient {
 		}
 
 		ServerSafetyState.reset();
+		ChunkReassembler.clear();
+		ChunkSender.clear();
+		CompressionArbiter.resetModel();
 	}
 
 	private static void onPlayReady(ClientPacketListener handler, Minecraft client) {
@@ -75,12 +84,19 @@ public class NCRClient {
 		});
 	}
 
-	public static boolean areSigningKeysPresent() {
-		return signingKeysPresent;
+	/**
+	 * @return True only once signing keys are known to be unavailable. While they are still being
+	 * fetched this returns false, so callers treat unknown keys like present ones. That is safe,
+	 * since vanilla has no chat session to sign messages with until the keys arrive, and once they
+	 * turn out to be absent every server resolves to {@link SigningMode#NEVER_FORCED}.
+	 */
+
+	public static boolean areSigningKeysAbsent() {
+		return signingKeys == SigningKeysState.ABSENT;
 	}
 
 	public static void setSigningKeysPresent(boolean present) {
-		signingKeysPresent = present;
+		signingKeys = present ? SigningKeysState.PRESENT : SigningKeysState.ABSENT;
 	}
 
 	public static void resendLastChatMessage() {
@@ -95,4 +111,15 @@ public class NCRClient {
 		chatScr.handleChatInput(NCRConfig.getEncryption().getLastMessage(), false);
 	}
 
+	/**
+	 * Signing keys are fetched from Mojang's key service in background, so for a while after
+	 * startup their presence is unknown.
+	 */
+
+	private enum SigningKeysState {
+		UNKNOWN,
+		PRESENT,
+		ABSENT;
+	}
+
 }
@@ -7,7 +7,6 @@ import com.aayushatharva.brotli4j.encoder.Encoder;
 import com.aizistral.nochatreports.common.NCRCore;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class BrotliCompression extends Compression {
@@ -24,9 +23,9 @@ public class BrotliCompression extends Compression {
     }
 
     @Override
-    public boolean hasValidHeader(byte[] data) {
-        if(data.length == 0) return false;
-        if(data[0] != 0x00) // Both id and metadata should be 0
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        if(data[offset] != 0x00) // Both id and metadata should be 0
             return false;
         return true;
     }
@@ -53,28 +52,21 @@ public class BrotliCompression extends Compression {
     }
 
     @Override
-    public byte[] decompress(byte[] data) throws IOException {
-        if(!hasValidHeader(data)) throw new IOException("Invalid header!");
-        byte[] brotliCompressed = new byte[data.length - 1];
-        for(int i = 1; i < data.length; i++)
-            brotliCompressed[i-1] = data[i];
-        ByteArrayInputStream dataIn = new ByteArrayInputStream(brotliCompressed);
-        BrotliInputStream brotIn = new BrotliInputStream(dataIn);
-        final int MAX_DECOMPRESSION_SIZE = 1024 * 10; // Don't allow more than 10 KiB of data (to mitigate "Zip Bombs")
-        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int count;
-        int total = 0;
-        while((count = brotIn.read(buffer)) > 0) {
-            total += count;
-            if(total > MAX_DECOMPRESSION_SIZE) {
-                throw new IOException("Decompressed data would have been over the internal limit (" + MAX_DECOMPRESSION_SIZE + " bytes). Decompression was aborted to mitigate \"Zip Bomb\" or other harmful actions to the MC Client.");
-            }
+    public byte[][] getHeaders() {
+        return new byte[][] { { 0x00 } };
+    }
 
-            decompressed.write(buffer, 0, count);
+    @Override
+    public void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        ByteArrayInputStream dataIn = new ByteArrayInputStream(data, offset + 1, length - 1);
+        try (BrotliInputStream brotIn = new BrotliInputStream(dataIn)) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while((count = brotIn.read(buffer)) > 0) {
+                out.write(buffer, 0, count); // Throws once over the limit of the sink
+            }
         }
-
-        return decompressed.toByteArray();
     }
 
 }
@@ -0,0 +1,123 @@
+package com.aizistral.nochatreports.common.compression;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.aayushatharva.brotli4j.encoder.PreparedDictionary;
+import com.aizistral.nochatreports.common.NCRCore;
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Brotli with the {@link PresetDictionary}, which gives it something to reference even in a
+ * single short chat line.
+ */
+
+public class BrotliDictionaryCompression extends Compression {
+    private static final byte HEADER = 0x20; // High nibble 2, dictionary version 0
+    private static boolean loaded = false;
+    private static @Nullable ByteBuffer dictionary = null;
+    private static @Nullable PreparedDictionary preparedDictionary = null;
+
+    protected BrotliDictionaryCompression() {
+        try {
+            Brotli4jLoader.ensureAvailability();
+            if (!Brotli4jLoader.isAvailable())
+                throw new RuntimeException("Brotli is not available (maybe not for your OS/Arch).");
+        }catch (Throwable ex) {
+            REGISTERED.remove(this);
+            NCRCore.LOGGER.error("Could not register Brotli Dictionary Compression", ex);
+        }
+    }
+
+    private static synchronized void loadDictionary() {
+        if (loaded) return;
+        loaded = true;
+
+        byte[] preset = PresetDictionary.get();
+        if (preset == null) return;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(preset.length);
+        buffer.put(preset);
+        buffer.flip();
+
+        try {
+            preparedDictionary = Encoder.prepareDictionary(buffer, 0);
+            dictionary = buffer;
+        } catch (Throwable ex) {
+            NCRCore.LOGGER.error("Failed to prepare Brotli dictionary", ex);
+        }
+    }
+
+    private static boolean isDictionaryAvailable() {
+        loadDictionary();
+        return dictionary != null;
+    }
+
+    /**
+     * Qualities 10 and 11 switch to a far slower optimal parser, which on a short chat line wins
+     * a byte or two at best, since most of the gain comes from the dictionary. Longer inputs
+     * would spend a lot of time matching against the dictionary even at quality 9.
+     */
+    private static int getQuality(int length) {
+        if (length <= 512) return 9;
+        return 6;
+    }
+
+    @Override
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        return data[offset] == HEADER;
+    }
+
+    @Override
+    public String getCompressionName() {
+        return "BrotliDict";
+    }
+
+    @Override
+    public byte[][] getHeaders() {
+        if (!isDictionaryAvailable()) return new byte[0][];
+        return new byte[][] { { HEADER } };
+    }
+
+    @Override
+    public byte[] compress(byte[] message) throws IOException {
+        if(!isDictionaryAvailable()) throw new IOException("Brotli dictionary is not available!");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(message.length + 1);
+        compressed.write(HEADER);
+        Encoder.Parameters params = new Encoder.Parameters().setQuality(getQuality(message.length)).setMode(Encoder.Mode.TEXT);
+        try (BrotliOutputStream brotOut = new BrotliOutputStream(compressed, params)) {
+            brotOut.attachDictionary(preparedDictionary);
+            brotOut.write(message);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public byte[] compress(byte[] header, byte[] message) throws IOException {
+        if(header.length != 1 || !hasValidHeader(header)) throw new IOException("Invalid header!");
+        return compress(message);
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        if(!isDictionaryAvailable()) throw new IOException("Brotli dictionary is not available!");
+        ByteArrayInputStream dataIn = new ByteArrayInputStream(data, offset + 1, length - 1);
+        try (BrotliInputStream brotIn = new BrotliInputStream(dataIn)) {
+            brotIn.attachDictionary(dictionary.duplicate());
+            byte[] buffer = new byte[1024];
+            int count;
+            while((count = brotIn.read(buffer)) > 0) {
+                out.write(buffer, 0, count); // Throws once over the limit of the sink
+            }
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable byte array meant to be reset and reused between messages, unlike
+ * {@link java.io.ByteArrayOutputStream} it is unsynchronized and exposes its contents for
+ * in-place edits. Writes VarInts in the same format as Minecraft's FriendlyByteBuf.
+ * A sink may be bounded, in which case any write that would take it past its limit fails
+ * before anything is copied, so that decompression of hostile data stops as early as possible.
+ */
+
+public final class ByteSink {
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+    private final int initialCapacity;
+    private final int limit;
+    private byte[] buffer;
+    private int size;
+
+    public ByteSink(int initialCapacity) {
+        this(initialCapacity, Integer.MAX_VALUE);
+    }
+
+    public ByteSink(int initialCapacity, int limit) {
+        this.initialCapacity = Math.min(initialCapacity, limit);
+        this.limit = limit;
+        this.buffer = new byte[this.initialCapacity];
+    }
+
+    /**
+     * Empties the sink, also dropping its storage if some unusually large message has grown
+     * it too much to keep around.
+     */
+
+    public ByteSink reset() {
+        if (this.buffer.length > MAX_RETAINED_CAPACITY) {
+            this.buffer = new byte[this.initialCapacity];
+        }
+
+        this.size = 0;
+        return this;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return Backing array, valid up to {@link #size()} and only until the next write.
+     */
+
+    public byte[] array() {
+        return this.buffer;
+    }
+
+    /**
+     * Makes room for given number of bytes up front, failing right away if they would take
+     * this sink past its limit.
+     */
+
+    public void reserve(int extra) throws IOException {
+        this.ensureCapacity(extra);
+    }
+
+    public void write(int value) throws IOException {
+        this.ensureCapacity(1);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        this.ensureCapacity(length);
+        System.arraycopy(data, offset, this.buffer, this.size, length);
+        this.size += length;
+    }
+
+    public void write(byte[] data) throws IOException {
+        this.write(data, 0, data.length);
+    }
+
+    public void writeVarInt(int value) throws IOException {
+        this.ensureCapacity((31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1);
+
+        while ((value & ~0x7F) != 0) {
+            this.buffer[this.size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    private void ensureCapacity(int extra) throws IOException {
+        if (extra > this.limit - this.size)
+            throw new IOException("Data would have been over the internal limit (" + this.limit + " bytes). "
+                    + "Decompression was aborted to mitigate \"Zip Bomb\" or other harmful actions to the MC Client.");
+
+        if (this.size + extra > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(this.limit, Math.max(this.buffer.length * 2L, this.size + extra)));
+        }
+    }
+
+}
@@ -6,16 +6,54 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 public abstract class Compression {
+    /**
+     * Most bytes a single message may decompress into, to mitigate "Zip Bombs".
+     */
+    public static final int MAX_DECOMPRESSION_SIZE = 1024 * 10;
 
     protected static ArrayList<Compression> REGISTERED = new ArrayList<>();
     public static BrotliCompression COMPRESSION_BROTLI = new BrotliCompression();
     public static CustomCompression COMPRESSION_CUSTOM = new CustomCompression();
+    public static BrotliDictionaryCompression COMPRESSION_BROTLI_DICT = new BrotliDictionaryCompression();
+    public static HuffmanCompression COMPRESSION_CUSTOM_HUFFMAN = new HuffmanCompression();
+    public static DeflateCompression COMPRESSION_DEFLATE = new DeflateCompression();
+    public static LZCompression COMPRESSION_LZ = new LZCompression();
 
     public abstract String getCompressionName();
-    public abstract boolean hasValidHeader(byte[] data);
+    public abstract boolean hasValidHeader(byte[] data, int offset, int length);
     public abstract byte[] compress(byte[] message) throws IOException;
     public abstract byte[] compress(byte[] header, byte[] message) throws IOException;
-    public abstract byte[] decompress(byte[] data) throws IOException;
+
+    /**
+     * Decompresses a slice of {@code data}, header included, appending the result to the sink.
+     * Reads nothing outside of the slice, and fails as soon as the sink refuses to take more,
+     * so a bounded sink caps the work any message can cause, however it was crafted.
+     */
+    public abstract void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException;
+
+    public boolean hasValidHeader(byte[] data) {
+        return hasValidHeader(data, 0, data.length);
+    }
+
+    public byte[] decompress(byte[] data) throws IOException {
+        ByteSink out = new ByteSink(Math.max(64, data.length * 4), MAX_DECOMPRESSION_SIZE);
+        decompress(data, 0, data.length, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Headers of every variant this compression can produce. Each of them is a separate
+     * candidate for {@link #compressWithBest(byte[])}.
+     */
+    public abstract byte[][] getHeaders();
+
+    /**
+     * @return Headers of variants worth trying for this particular message. All of them, unless
+     * the compression can tell some apart up front.
+     */
+    public byte[][] getHeaders(byte[] message) {
+        return getHeaders();
+    }
 
     protected Compression() {
         if(REGISTERED.stream().anyMatch((c) -> c.getCompressionName().equals(getCompressionName())))
@@ -27,19 +65,21 @@ public abstract class Compression {
         return REGISTERED.toArray(new Compression[0]);
     }
 
-    public static byte[] compressWithBest(byte[] message) throws IOException {
-        byte[] bestCompressed = null;
-        for(Compression compression : getRegistered()) {
-            byte[] compressed = compression.compress(message);
-            if(bestCompressed == null || compressed.length < bestCompressed.length)
-                bestCompressed = compressed;
-        }
-        return bestCompressed;
+    /**
+     * @return Smallest message any compression produced within latency budget, or null if none
+     * of them was fast enough, in which case the message should be sent uncompressed.
+     */
+    public static @Nullable byte[] compressWithBest(byte[] message) throws IOException {
+        return CompressionArbiter.compress(message, CompressionArbiter.DEFAULT_BUDGET_MILLIS);
     }
 
     public static @Nullable Compression findCompression(byte[] data) {
-        for(Compression compression : getRegistered()) {
-            if(compression.hasValidHeader(data)) return compression;
+        return findCompression(data, 0, data.length);
+    }
+
+    public static @Nullable Compression findCompression(byte[] data, int offset, int length) {
+        for(Compression compression : REGISTERED) {
+            if(compression.hasValidHeader(data, offset, length)) return compression;
         }
         return null;
     }
@@ -0,0 +1,328 @@
+package com.aizistral.nochatreports.common.compression;
+
+import com.aizistral.nochatreports.common.NCRCore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every registered compression variant at the same time on a small dedicated executor,
+ * and picks the smallest result that finished within the latency budget. Candidates that keep
+ * running out of budget are demoted, and only get another chance every once in a while.
+ * <p>
+ * On top of that, learns which candidates actually win for messages of similar length and
+ * charset. Once a bucket of such messages has seen enough of them, only candidates with a
+ * meaningful share of recent wins are run, and everything is evaluated again every so often
+ * to keep the shares current.
+ */
+
+public final class CompressionArbiter {
+    public static final long DEFAULT_BUDGET_MILLIS = 40;
+    private static final int DEMOTION_THRESHOLD = 3;
+    private static final int DEMOTED_RETRY_INTERVAL = 16;
+    private static final double WIN_DECAY = 0.97;
+    private static final double MODEL_WARMUP = 20;
+    private static final double MIN_WIN_SHARE = 0.15;
+    private static final int EXPLORATION_INTERVAL = 16;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+            new ThreadFactoryBuilder().setNameFormat("NCR Compression #%d").setDaemon(true).build());
+    private static final Map<String, CandidateStats> STATS = new LinkedHashMap<>();
+    private static final Map<Integer, BucketModel> MODEL = new HashMap<>();
+
+    private CompressionArbiter() {
+        throw new IllegalStateException("Can't touch this");
+    }
+
+    /**
+     * Compresses the message with all candidates in parallel. Never waits past the budget,
+     * even if none of them has finished by then.
+     *
+     * @return Smallest compressed message, including header of the compression that produced it,
+     * or null if no candidate finished within the budget.
+     */
+
+    public static @Nullable byte[] compress(byte[] message, long budgetMillis) throws IOException {
+        Selection selection = select(message, listCandidates(message));
+        List<Candidate> candidates = selection.candidates;
+        CompletionService<Result> service = new ExecutorCompletionService<>(EXECUTOR);
+        List<Future<Result>> futures = new ArrayList<>(candidates.size());
+
+        for (Candidate candidate : candidates) {
+            futures.add(service.submit(() -> {
+                long start = System.nanoTime();
+                candidate.stats.running = true;
+
+                try {
+                    byte[] compressed = candidate.compression.compress(candidate.header, message);
+                    return new Result(candidate, compressed, System.nanoTime() - start);
+                } finally {
+                    candidate.stats.running = false;
+                }
+            }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        byte[] best = null;
+        Candidate winner = null;
+        IOException firstEx = null;
+        int pending = futures.size();
+
+        try {
+            while (pending > 0) {
+                Future<Result> future = service.poll(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+
+                if (future == null) {
+                    break;
+                }
+
+                pending--;
+
+                try {
+                    Result result = future.get();
+                    record(result.candidate, result.nanos, result.nanos > TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+
+                    if (best == null || result.compressed.length < best.length) {
+                        best = result.compressed;
+                        winner = result.candidate;
+                    }
+                } catch (ExecutionException ex) {
+                    if (firstEx == null) {
+                        firstEx = ex.getCause() instanceof IOException io ? io : new IOException(ex.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compression", ex);
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone()) {
+                    // Only blame those that got a thread, rather than waited for one
+                    if (candidates.get(i).stats.running) {
+                        record(candidates.get(i), TimeUnit.MILLISECONDS.toNanos(budgetMillis), true);
+                    }
+
+                    futures.get(i).cancel(true);
+                }
+            }
+        }
+
+        if (best == null && pending == 0 && firstEx != null)
+            throw firstEx;
+        else if (best == null)
+            return null;
+
+        if (selection.exploring) {
+            learn(selection.bucket, candidates, winner);
+        }
+
+        return best;
+    }
+
+    /**
+     * @return Timing of every candidate evaluated so far, fastest first.
+     */
+
+    public static synchronized List<CandidateTiming> getTimings() {
+        return STATS.values().stream().map(stats -> new CandidateTiming(stats.name, stats.runs, stats.timeouts,
+                stats.averageNanos, stats.isDemoted())).sorted(Comparator.comparingLong(CandidateTiming::averageNanos))
+                .toList();
+    }
+
+    /**
+     * Forgets which candidates win, since that depends a lot on what people on particular
+     * server talk about and in what language.
+     */
+
+    public static synchronized void resetModel() {
+        MODEL.clear();
+    }
+
+    /**
+     * Resolves headers without holding the lock, since that may load a dictionary.
+     */
+
+    private static List<Candidate> listCandidates(byte[] message) {
+        List<Candidate> all = new ArrayList<>();
+
+        for (Compression compression : Compression.getRegistered()) {
+            for (byte[] header : compression.getHeaders(message)) {
+                String name = compression.getCompressionName() + " #" + HexFormat.of().formatHex(header);
+                all.add(new Candidate(compression, header, name, getStats(name)));
+            }
+        }
+
+        return all;
+    }
+
+    private static synchronized CandidateStats getStats(String name) {
+        return STATS.computeIfAbsent(name, CandidateStats::new);
+    }
+
+    private static synchronized Selection select(byte[] message, List<Candidate> all) {
+        List<Candidate> candidates = new ArrayList<>();
+
+        for (Candidate candidate : all) {
+            CandidateStats stats = candidate.stats;
+
+            // Still stuck on an earlier message, running it again would only take another thread
+            if (stats.running) {
+                continue;
+            }
+
+            if (stats.isDemoted() && stats.skipped++ < DEMOTED_RETRY_INTERVAL) {
+                continue;
+            }
+
+            stats.skipped = 0;
+            candidates.add(candidate);
+        }
+
+        // Never leave a message without any candidate at all, unless all of them are stuck
+        if (candidates.isEmpty()) {
+            candidates = new ArrayList<>(all.stream().filter(candidate -> !candidate.stats.running).toList());
+        }
+
+        BucketModel bucket = MODEL.computeIfAbsent(getBucket(message), key -> new BucketModel());
+        boolean exploring = bucket.observations < MODEL_WARMUP || ++bucket.sinceExploration >= EXPLORATION_INTERVAL;
+
+        if (exploring) {
+            bucket.sinceExploration = 0;
+        } else if (!candidates.isEmpty()) {
+            candidates = bucket.filter(candidates);
+        }
+
+        // Fastest ones first, so that they get threads when there are more candidates than threads
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.stats.averageNanos));
+        return new Selection(candidates, bucket, exploring);
+    }
+
+    private static synchronized void learn(BucketModel bucket, List<Candidate> candidates, Candidate winner) {
+        bucket.observations = bucket.observations * WIN_DECAY + 1;
+        bucket.wins.replaceAll((name, wins) -> wins * WIN_DECAY);
+
+        for (Candidate candidate : candidates) {
+            bucket.wins.putIfAbsent(candidate.name, 0D);
+        }
+
+        bucket.wins.merge(winner.name, 1D, Double::sum);
+    }
+
+    /**
+     * @return Bucket of similar messages: by length on a logarithmic scale, and by how much of
+     * the message is outside of ASCII.
+     */
+
+    private static int getBucket(byte[] message) {
+        int nonAscii = 0;
+
+        for (byte b : message) {
+            if (b < 0) {
+                nonAscii++;
+            }
+        }
+
+        int charset = nonAscii == 0 ? 0 : nonAscii * 4 < message.length ? 1 : 2;
+        int length = Math.min(5, Math.max(0, 27 - Integer.numberOfLeadingZeros(message.length)));
+        return length * 3 + charset;
+    }
+
+    private static synchronized void record(Candidate candidate, long nanos, boolean timedOut) {
+        CandidateStats stats = STATS.computeIfAbsent(candidate.name, CandidateStats::new);
+        stats.averageNanos = stats.runs == 0 ? nanos : (stats.averageNanos * 7 + nanos) / 8;
+        stats.runs++;
+
+        if (timedOut) {
+            stats.timeouts++;
+
+            if (++stats.timeoutsInRow == DEMOTION_THRESHOLD) {
+                NCRCore.LOGGER.info("Compression candidate {} keeps exceeding latency budget, demoting it", candidate.name);
+            }
+        } else {
+            stats.timeoutsInRow = 0;
+        }
+    }
+
+    public record CandidateTiming(String name, int runs, int timeouts, long averageNanos, boolean demoted) {
+        // NO-OP
+    }
+
+    private record Candidate(Compression compression, byte[] header, String name, CandidateStats stats) {
+        // NO-OP
+    }
+
+    private record Result(Candidate candidate, byte[] compressed, long nanos) {
+        // NO-OP
+    }
+
+    private record Selection(List<Candidate> candidates, BucketModel bucket, boolean exploring) {
+        // NO-OP
+    }
+
+    private static class BucketModel {
+        private final Map<String, Double> wins = new HashMap<>();
+        private double observations;
+        private int sinceExploration;
+
+        /**
+         * @return Candidates with a meaningful share of recent wins, and those that haven't
+         * been evaluated for this bucket yet.
+         */
+
+        private List<Candidate> filter(List<Candidate> candidates) {
+            List<Candidate> result = new ArrayList<>();
+            Candidate top = null;
+
+            for (Candidate candidate : candidates) {
+                Double wins = this.wins.get(candidate.name);
+
+                if (wins == null || wins >= this.observations * MIN_WIN_SHARE) {
+                    result.add(candidate);
+                }
+
+                if (wins != null && (top == null || wins > this.wins.get(top.name))) {
+                    top = candidate;
+                }
+            }
+
+            if (result.isEmpty()) {
+                result.add(top != null ? top : candidates.get(0));
+            }
+
+            return result;
+        }
+    }
+
+    private static class CandidateStats {
+        private final String name;
+        private int runs, timeouts, timeoutsInRow, skipped;
+        private long averageNanos;
+        // Cancellation can't interrupt native code, so a timed out run may still hold a thread
+        private volatile boolean running;
+
+        private CandidateStats(String name) {
+            this.name = name;
+        }
+
+        private boolean isDemoted() {
+            return this.timeoutsInRow >= DEMOTION_THRESHOLD;
+        }
+    }
+
+}
@@ -1,53 +1,101 @@
 package com.aizistral.nochatreports.common.compression;
 
 import com.aizistral.nochatreports.common.NCRCore;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.ByteBufUtil;
-import io.netty.buffer.Unpooled;
 import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
-import net.minecraft.network.FriendlyByteBuf;
 import org.apache.commons.lang3.NotImplementedException;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * Dictionary compression of space-separated words. Header id 1 is the original format, where
+ * each word is either a dictionary index or literal bytes. Header id 4 is the tokenized format,
+ * which is the only one produced now: it also splits off leading and trailing punctuation into
+ * single-character tokens, and marks Title or UPPER case words with a prefix code, so that
+ * those still hit the dictionary in their lower case form.
+ */
 public class CustomCompression extends Compression {
-    private static BiMap<Integer, String>[] CUSTOM_DICTIONARIES = null;
-
-    private static void loadCustomDictionaries() {
-        CUSTOM_DICTIONARIES = new BiMap[0];
-        // Currently only one dictionary exists
-        HashBiMap<Integer, String> bestDictWords = HashBiMap.create(560604);
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(Compression.class.getResourceAsStream("/assets/nochatreports/dictionaries/bestDict.txt")));
-            String line;
-            int i = 0;
-            while((line = reader.readLine()) != null) {
-                bestDictWords.put(i, line.strip());
-                i++;
+    private static final int LEGACY_ID = 0x01;
+    private static final int TOKENIZED_ID = 0x04;
+    private static final String PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+    private static final int CODE_LITERAL = 0;
+    private static final int CODE_TITLE = 1;
+    private static final int CODE_UPPER = 2;
+    private static final int CODE_GLUE = 3; // Next word follows without a space
+    private static final int CODE_SPACE = 4; // Next punctuation follows a space
+    private static final int CODE_PUNCTUATION = 5;
+    private static final int CODE_WORD = CODE_PUNCTUATION + PUNCTUATION.length();
+    private static final byte[] MISSING_WORD = "<Missing word!>".getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+    private static final String DICTIONARY_PATH = "/assets/nochatreports/dictionaries/";
+    private static final WordDictionary[] CUSTOM_DICTIONARIES = new WordDictionary[DictionaryLanguage.values().length];
+    private static final Boolean[] AVAILABLE = new Boolean[DictionaryLanguage.values().length];
+
+    /**
+     * Prefers prebuilt binary dictionary, and falls back to building one from plain word list.
+     */
+    private static WordDictionary loadDictionary(String name) {
+        String path = DICTIONARY_PATH + name;
+        try (InputStream binary = Compression.class.getResourceAsStream(path + ".bin")) {
+            if(binary != null) {
+                WordDictionary dictionary = WordDictionary.read(new BufferedInputStream(binary));
+                NCRCore.LOGGER.info("Loaded " + name + ".bin: " + dictionary.size() + " entries");
+                return dictionary;
             }
-            NCRCore.LOGGER.info("Loaded bestDict.txt: " + i + " entries");
-            reader.close();
         }catch (IOException ex) {
-            NCRCore.LOGGER.error("Failed to load dict 0 (\"bestDict.txt\")", ex);
+            NCRCore.LOGGER.error("Failed to load " + name + ".bin, falling back to " + name + ".txt", ex);
+        }
+
+        try (InputStream text = Compression.class.getResourceAsStream(path + ".txt")) {
+            if(text == null) throw new FileNotFoundException(path + ".txt");
+            WordDictionary dictionary = WordDictionary.fromWordList(text);
+            NCRCore.LOGGER.info("Loaded " + name + ".txt: " + dictionary.size() + " entries");
+            return dictionary;
+        }catch (IOException ex) {
+            NCRCore.LOGGER.error("Failed to load dict \"" + name + "\"", ex);
+        }
+
+        return WordDictionary.empty();
+    }
+
+    /**
+     * @return Whether a dictionary with this id is shipped, without loading it. The English one
+     * is always considered present, even if it fails to load.
+     */
+    public static synchronized boolean hasCustomDictionary(int dictId) {
+        DictionaryLanguage language = DictionaryLanguage.byId(dictId);
+        if(language == null) return false;
+        if(AVAILABLE[dictId] == null) {
+            String path = DICTIONARY_PATH + language.getDictionaryName();
+            AVAILABLE[dictId] = language == DictionaryLanguage.ENGLISH
+                    || Compression.class.getResource(path + ".bin") != null
+                    || Compression.class.getResource(path + ".txt") != null;
         }
-        CUSTOM_DICTIONARIES = new BiMap[] { bestDictWords };
+        return AVAILABLE[dictId];
     }
 
-    public static @Nullable BiMap<Integer, String> findCustomDictionary(int dictId) {
-        if(CUSTOM_DICTIONARIES == null) loadCustomDictionaries();
-        if(dictId < 0 || dictId >= CUSTOM_DICTIONARIES.length) return null;
-        return CUSTOM_DICTIONARIES[dictId];
+    /**
+     * Loads dictionaries on first use, since most clients will only ever need one or two of them.
+     */
+    public static @Nullable WordDictionary findCustomDictionary(int dictId) {
+        if(!hasCustomDictionary(dictId)) return null;
+        WordDictionary dictionary = CUSTOM_DICTIONARIES[dictId];
+        if(dictionary != null) return dictionary;
+
+        synchronized(CUSTOM_DICTIONARIES) {
+            if(CUSTOM_DICTIONARIES[dictId] == null)
+                CUSTOM_DICTIONARIES[dictId] = loadDictionary(DictionaryLanguage.byId(dictId).getDictionaryName());
+            return CUSTOM_DICTIONARIES[dictId];
+        }
     }
 
     @Override
-    public boolean hasValidHeader(byte[] data) {
-        if(data.length == 0) return false;
-        int compressionId = (data[0] >> 4) & 0x0F;
-        if(compressionId != 0x01) return false;
-        if (findCustomDictionary(getDictId(data)) == null) return false;
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        int compressionId = (data[offset] >> 4) & 0x0F;
+        if(compressionId != LEGACY_ID && compressionId != TOKENIZED_ID) return false;
+        if (!hasCustomDictionary(data[offset] & 0x0F)) return false;
         return true;
     }
 
@@ -61,95 +109,323 @@ public class CustomCompression extends Compression {
         return "Custom";
     }
 
+    /**
+     * @return Headers for every shipped dictionary. Loads the English one, which is needed
+     * for most messages anyway.
+     */
+    @Override
+    public byte[][] getHeaders() {
+        findCustomDictionary(DictionaryLanguage.ENGLISH.getId());
+        return Arrays.stream(DictionaryLanguage.values()).filter(language -> hasCustomDictionary(language.getId()))
+                .map(CustomCompression::getHeader).toArray(byte[][]::new);
+    }
+
+    /**
+     * @return Headers for one or two dictionaries of languages the message seems to be in.
+     */
+    @Override
+    public byte[][] getHeaders(byte[] message) {
+        DictionaryLanguage[] languages = LanguageDetector.detect(message, language -> hasCustomDictionary(language.getId()));
+        byte[][] headers = new byte[languages.length][];
+        for(int i = 0; i < languages.length; i++)
+            headers[i] = getHeader(languages[i]);
+        return headers;
+    }
+
+    private static byte[] getHeader(DictionaryLanguage language) {
+        if(language.getId() >= 0b1111) throw new NotImplementedException("Can't encode dict id " + language.getId() + "!");
+        return new byte[] { (byte) ((TOKENIZED_ID << 4) | language.getId()) };
+    }
+
     @Override
     public byte[] compress(byte[] message) throws IOException {
-        if(CUSTOM_DICTIONARIES == null) loadCustomDictionaries();
         byte[] bestCompressed = null;
-        for(int dictId = 0; dictId < CUSTOM_DICTIONARIES.length; dictId++) {
-            if(dictId >= 0b1111) throw new NotImplementedException("Can't encode dict id " + dictId + "!");
-            byte[] header = new byte[] { (byte) (0x10 | dictId) };
+        for(byte[] header : getHeaders(message)) {
             byte[] compressed = compress(header, message);
             if(bestCompressed == null || compressed.length < bestCompressed.length)
                 bestCompressed = compressed;
         }
         if(bestCompressed == null)
-            throw new NotImplementedException("Unexpected: Not a single dictionary was found to compress!");
+            throw new IOException("No dictionary is available for the language of this message!");
         return bestCompressed;
     }
 
     @Override
     public byte[] compress(byte[] header, byte[] message) throws IOException {
-        if(!hasValidHeader(header)) throw new IOException("Invalid header!");
-        int dictId = getDictId(header);
-        BiMap<String, Integer> wordToIndex = findCustomDictionary(dictId).inverse();
+        if(header.length != 1 || !hasValidHeader(header)) throw new IOException("Invalid header!");
+        return this.compress(header, message, findCustomDictionary(getDictId(header)));
+    }
 
-        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    /**
+     * Compresses with given dictionary instead of the one named by the header, which is
+     * expected to be valid already.
+     */
+    byte[] compress(byte[] header, byte[] message, WordDictionary dictionary) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        ByteSink compressed = buffers.output.reset();
         compressed.write(header);
-        ByteArrayOutputStream currentWord = new ByteArrayOutputStream();
+
+        if(((header[0] >> 4) & 0x0F) == TOKENIZED_ID)
+            compressTokenized(compressed, buffers.word, dictionary, message);
+        else
+            compressLegacy(compressed, dictionary, message);
+
+        return compressed.toByteArray();
+    }
+
+    private void compressLegacy(ByteSink compressed, WordDictionary dictionary, byte[] message) throws IOException {
+        int wordStart = 0;
         for(int i = 0; i < message.length; i++) {
+            if(i == wordStart) {
+                // Greedily take the longest phrase starting with this word, if there is one
+                int phrase = dictionary.matchPhrase(message, i, message.length - i);
+                if(phrase != -1) {
+                    compressed.writeVarInt(phrase + 1);
+                    i += dictionary.getWordLength(phrase); // Space after the phrase, if any
+                    wordStart = i + 1;
+                    continue;
+                }
+            }
+
             if(message[i] == (byte) ' ') {
                 // Compress previous word
-                byte[] compressedWord = compressWord(wordToIndex, currentWord.toByteArray());
-                compressed.write(compressedWord, 0, compressedWord.length);
-                currentWord.reset();
-            } else {
-                // Add to word
-                currentWord.write(new byte[] { message[i]}, 0, 1);
+                compressLegacyWord(compressed, dictionary, message, wordStart, i);
+                wordStart = i + 1;
             }
         }
 
         // Last remaining word
-        if(currentWord.size() > 0) {
-            byte[] compressedWord = compressWord(wordToIndex, currentWord.toByteArray());
-            compressed.write(compressedWord, 0, compressedWord.length);
+        if(wordStart < message.length)
+            compressLegacyWord(compressed, dictionary, message, wordStart, message.length);
+    }
+
+    private void compressLegacyWord(ByteSink compressed, WordDictionary dictionary, byte[] message, int start, int end) throws IOException {
+        int wordIndex = dictionary.indexOf(message, start, end - start);
+        if(wordIndex != -1) {
+            compressed.writeVarInt(wordIndex + 1);
+            return; // Done
         }
 
-        return compressed.toByteArray();
+        // Not in dictionary. Write as nonexistant word...
+        compressed.writeVarInt(0);
+        compressed.writeVarInt(end - start);
+        compressed.write(message, start, end - start);
+    }
+
+    private void compressTokenized(ByteSink compressed, ByteSink scratch, WordDictionary dictionary, byte[] message) throws IOException {
+        if(message.length == 0) return;
+
+        // Unlike the legacy format, keeps the empty word after a trailing space
+        int start = 0;
+        while(start <= message.length) {
+            int end;
+            int phrase = dictionary.matchPhrase(message, start, message.length - start);
+            if(phrase != -1) {
+                compressed.writeVarInt(CODE_WORD + phrase);
+                end = start + dictionary.getWordLength(phrase);
+            }else {
+                end = start;
+                while(end < message.length && message[end] != (byte) ' ') end++;
+                compressChunk(compressed, scratch, dictionary, message, start, end, start == 0);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Writes everything between two spaces: leading punctuation, the word, then trailing
+     * punctuation. Words are separated by a space unless glued, punctuation is glued unless
+     * separated.
+     */
+    private void compressChunk(ByteSink compressed, ByteSink scratch, WordDictionary dictionary, byte[] message, int start, int end, boolean first) throws IOException {
+        int wordStart = start, wordEnd = end;
+        while(wordStart < end && isPunctuation(message[wordStart])) wordStart++;
+        while(wordEnd > wordStart && isPunctuation(message[wordEnd - 1])) wordEnd--;
+
+        if(wordStart > start) {
+            if(!first) compressed.writeVarInt(CODE_SPACE);
+            for(int i = start; i < wordStart; i++)
+                compressed.writeVarInt(CODE_PUNCTUATION + PUNCTUATION.indexOf(message[i]));
+            if(wordStart == end) return; // Nothing but punctuation
+            compressed.writeVarInt(CODE_GLUE);
+        }
+
+        compressTokenizedWord(compressed, scratch, dictionary, message, wordStart, wordEnd);
+
+        for(int i = wordEnd; i < end; i++)
+            compressed.writeVarInt(CODE_PUNCTUATION + PUNCTUATION.indexOf(message[i]));
     }
 
-    private byte[] compressWord(BiMap<String, Integer> wordToIndex, byte[] word) {
-        FriendlyByteBuf buffer = new FriendlyByteBuf(ByteBufAllocator.DEFAULT.buffer());
+    private void compressTokenizedWord(ByteSink compressed, ByteSink scratch, WordDictionary dictionary, byte[] message, int start, int end) throws IOException {
+        int wordIndex = dictionary.indexOf(message, start, end - start);
+        if(wordIndex != -1) {
+            compressed.writeVarInt(CODE_WORD + wordIndex);
+            return;
+        }
+
+        // Only ASCII letters are told apart, anything else has to match the dictionary as is
+        boolean hasUpper = false, restHasUpper = false, hasLower = false;
+        for(int i = start; i < end; i++) {
+            if(isUpper(message[i])) {
+                hasUpper = true;
+                if(i > start) restHasUpper = true;
+            }else if(isLower(message[i])) {
+                hasLower = true;
+            }
+        }
 
-        // Attempt to detect as UTF-8 String and find in dictionary
-        try {
-            String wordStr = new String(word, StandardCharsets.UTF_8);
-            int wordIndex = wordToIndex.getOrDefault(wordStr, -1);
-            if(wordIndex != -1) {
-                buffer.writeVarInt(wordIndex + 1);
-                return ByteBufUtil.getBytes(buffer); // Done
+        if(hasUpper) {
+            int letterCase = isUpper(message[start]) && !restHasUpper ? CODE_TITLE : !hasLower ? CODE_UPPER : -1;
+            if(letterCase != -1) {
+                scratch.reset().write(message, start, end - start);
+                byte[] lower = scratch.array();
+                for(int i = 0; i < scratch.size(); i++)
+                    if(isUpper(lower[i])) lower[i] += 'a' - 'A';
+                wordIndex = dictionary.indexOf(lower, 0, scratch.size());
+                if(wordIndex != -1) {
+                    compressed.writeVarInt(letterCase);
+                    compressed.writeVarInt(CODE_WORD + wordIndex);
+                    return;
+                }
             }
-        }catch (Exception ex) {}
+        }
 
-        // Either not in dictionary or failed o read as string. Write as nonexistant word...
-        buffer.writeVarInt(0);
-        buffer.writeByteArray(word);
-        return ByteBufUtil.getBytes(buffer);
+        // Not in dictionary. Write as nonexistant word...
+        compressed.writeVarInt(CODE_LITERAL);
+        compressed.writeVarInt(end - start);
+        compressed.write(message, start, end - start);
     }
 
     @Override
-    public byte[] decompress(byte[] data) throws IOException {
-        FriendlyByteBuf buffer = new FriendlyByteBuf(Unpooled.wrappedBuffer(data));
-        byte[] header = new byte[] { buffer.readByte() };
-        if(!hasValidHeader(header)) throw new IOException("Invalid header!");
-        int dictId = getDictId(header);
-        BiMap<Integer, String> indexToWord = findCustomDictionary(dictId);
+    public void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        this.decompress(data, offset, length, out, findCustomDictionary(data[offset] & 0x0F));
+    }
 
+    /**
+     * Decompresses with given dictionary instead of the one named by the header, which is
+     * expected to be valid already.
+     */
+    void decompress(byte[] data, int offset, int length, ByteSink out, WordDictionary dictionary) throws IOException {
+        Reader reader = new Reader(data, offset + 1, offset + length);
+
+        if(((data[offset] >> 4) & 0x0F) == TOKENIZED_ID)
+            decompressTokenized(reader, out, dictionary);
+        else
+            decompressLegacy(reader, out, dictionary);
+    }
+
+    private void decompressLegacy(Reader reader, ByteSink decompressed, WordDictionary dictionary) throws IOException {
         int wordCount = 0;
-        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
-        while(buffer.readableBytes() > 0) {
-            int maybeWordIndex = buffer.readVarInt();
+        while(reader.readable()) {
+            int maybeWordIndex = reader.readVarInt();
             if(wordCount > 0)
                 decompressed.write(' ');
             wordCount++;
             if(maybeWordIndex == 0) {
                 // No dict entry but data (should be UTF-8, but we allow any bytes
-                decompressed.write(buffer.readByteArray());
+                reader.readByteArray(decompressed);
             }else {
-                String word = indexToWord.getOrDefault(maybeWordIndex - 1, "<Missing word!>");
-                decompressed.write(word.getBytes(StandardCharsets.UTF_8));
+                if(!dictionary.writeWord(maybeWordIndex - 1, decompressed))
+                    decompressed.write(MISSING_WORD);
             }
         }
-        return decompressed.toByteArray();
+    }
+
+    private void decompressTokenized(Reader reader, ByteSink decompressed, WordDictionary dictionary) throws IOException {
+        boolean first = true, glue = false, space = false;
+        int letterCase = -1;
+        while(reader.readable()) {
+            int code = reader.readVarInt();
+            if(code == CODE_TITLE || code == CODE_UPPER) {
+                letterCase = code;
+                continue;
+            }else if(code == CODE_GLUE) {
+                glue = true;
+                continue;
+            }else if(code == CODE_SPACE) {
+                space = true;
+                continue;
+            }else if(code >= CODE_PUNCTUATION && code < CODE_WORD) {
+                if(space && !first)
+                    decompressed.write(' ');
+                decompressed.write(PUNCTUATION.charAt(code - CODE_PUNCTUATION));
+            }else {
+                if(!glue && !first)
+                    decompressed.write(' ');
+                int wordStart = decompressed.size();
+                if(code == CODE_LITERAL) {
+                    reader.readByteArray(decompressed);
+                }else if(code < CODE_WORD || !dictionary.writeWord(code - CODE_WORD, decompressed)) {
+                    throw new IOException("Missing word!");
+                }else if(letterCase != -1) {
+                    // Restore case in place
+                    byte[] word = decompressed.array();
+                    for(int i = wordStart; i < decompressed.size(); i++) {
+                        if(isLower(word[i]) && (letterCase == CODE_UPPER || i == wordStart))
+                            word[i] -= 'a' - 'A';
+                    }
+                }
+            }
+            first = false;
+            glue = space = false;
+            letterCase = -1;
+        }
+    }
+
+    private static boolean isPunctuation(byte b) {
+        return b > ' ' && b < 0x7F && PUNCTUATION.indexOf(b) != -1;
+    }
+
+    private static boolean isUpper(byte b) {
+        return b >= 'A' && b <= 'Z';
+    }
+
+    private static boolean isLower(byte b) {
+        return b >= 'a' && b <= 'z';
+    }
+
+    /**
+     * Reads straight from the compressed array, without copying anything out of it.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        private Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        private boolean readable() {
+            return this.position < this.end;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for(int shift = 0; shift < 35; shift += 7) {
+                if(!this.readable()) throw new IOException("Unexpected end of data!");
+                byte b = this.data[this.position++];
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) return value;
+            }
+            throw new IOException("VarInt too big!");
+        }
+
+        private void readByteArray(ByteSink out) throws IOException {
+            int length = this.readVarInt();
+            if(length < 0 || length > this.end - this.position)
+                throw new IOException("Byte array is longer than remaining data!");
+            out.write(this.data, this.position, length);
+            this.position += length;
+        }
+    }
+
+    private static class Buffers {
+        private final ByteSink output = new ByteSink(256);
+        private final ByteSink word = new ByteSink(64);
     }
 
 }
@@ -0,0 +1,100 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw Deflate from {@link java.util.zip} with the {@link PresetDictionary}. Slower and weaker
+ * than Brotli, but needs no natives, so it's always there as a general-purpose fallback.
+ * Deflate's window is exactly as big as the dictionary, so all of it stays reachable.
+ */
+
+public class DeflateCompression extends Compression {
+    private static final byte HEADER = 0x50; // High nibble 5, dictionary version 0
+    private static final byte[] DUMMY = new byte[1];
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    @Override
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        return data[offset] == HEADER;
+    }
+
+    @Override
+    public String getCompressionName() {
+        return "Deflate";
+    }
+
+    @Override
+    public byte[][] getHeaders() {
+        if(PresetDictionary.get() == null) return new byte[0][];
+        return new byte[][] { { HEADER } };
+    }
+
+    @Override
+    public byte[] compress(byte[] message) throws IOException {
+        byte[] dictionary = PresetDictionary.get();
+        if(dictionary == null) throw new IOException("Preset dictionary is not available!");
+
+        Deflater deflater = DEFLATERS.get();
+        byte[] chunk = CHUNKS.get();
+        ByteSink compressed = new ByteSink(message.length + 16);
+        compressed.write(HEADER);
+
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(message);
+            deflater.finish();
+            while(!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                compressed.write(chunk, 0, count);
+            }
+        } finally {
+            deflater.reset();
+        }
+
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public byte[] compress(byte[] header, byte[] message) throws IOException {
+        if(header.length != 1 || !hasValidHeader(header)) throw new IOException("Invalid header!");
+        return compress(message);
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        byte[] dictionary = PresetDictionary.get();
+        if(dictionary == null) throw new IOException("Preset dictionary is not available!");
+
+        Inflater inflater = INFLATERS.get();
+        byte[] chunk = CHUNKS.get();
+        boolean padded = false;
+
+        try {
+            inflater.setDictionary(dictionary);
+            inflater.setInput(data, offset + 1, length - 1);
+            while(!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if(count == 0 && inflater.needsInput() && !padded) {
+                    // Raw inflate may need an extra dummy byte past the end of input
+                    inflater.setInput(DUMMY);
+                    padded = true;
+                }else if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated Deflate stream!");
+                }
+                out.write(chunk, 0, count); // Throws once over the limit of the sink
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid Deflate stream!", ex);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+}
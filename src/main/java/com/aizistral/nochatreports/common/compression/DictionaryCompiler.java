@@ -0,0 +1,55 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Build-time tool that compiles every plain text word list in a directory into the binary
+ * format of {@link WordDictionary#write(OutputStream)}, so that clients load dictionaries
+ * straight into arrays rather than building perfect hashes of them on every start. Invoked by
+ * the compileDictionaries Gradle task.
+ */
+
+public final class DictionaryCompiler {
+
+    private DictionaryCompiler() {
+        throw new IllegalStateException("Can't touch this");
+    }
+
+    /**
+     * @param args Directory with word lists, and directory to write binary dictionaries into.
+     */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2)
+            throw new IllegalArgumentException("Usage: DictionaryCompiler <word list dir> <output dir>");
+
+        Path source = Path.of(args[0]), output = Path.of(args[1]);
+        Files.createDirectories(output);
+
+        try (DirectoryStream<Path> lists = Files.newDirectoryStream(source, "*.txt")) {
+            for (Path list : lists) {
+                String name = list.getFileName().toString();
+                Path target = output.resolve(name.substring(0, name.length() - 4) + ".bin");
+                WordDictionary dictionary;
+
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(list))) {
+                    dictionary = WordDictionary.fromWordList(in);
+                }
+
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+                    dictionary.write(out);
+                }
+
+                System.out.println("Compiled " + name + ": " + dictionary.size() + " entries");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.aizistral.nochatreports.common.compression;
+
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+/**
+ * Languages that may have a dictionary for {@link CustomCompression}, indexed by the dictionary
+ * id that goes into low nibble of its header, so ids must never change. There is room for 15,
+ * which only fits languages that separate words with spaces; the rest are left to Brotli.
+ * Dictionaries are loaded from {@code assets/nochatreports/dictionaries/<name>.bin} or
+ * {@code .txt}, and those that aren't shipped are simply never picked.
+ */
+
+public enum DictionaryLanguage {
+    ENGLISH(0, "bestDict", false, "", "the you and is it to that what not this are"),
+    GERMAN(1, "de", false, "äöüß", "ich du und nicht ist das ein eine der die was auch"),
+    FRENCH(2, "fr", false, "éèêàçùâîôœëï", "je tu le la les est pas et une des que oui"),
+    SPANISH(3, "es", false, "ñáíóúé¿¡", "que el la los y no es por una pero eso"),
+    PORTUGUESE(4, "pt", false, "ãõçáâêôéí", "que não você eu é uma mas isso tudo"),
+    RUSSIAN(5, "ru", true, "ыэъё", "я ты не что это и в на как"),
+    POLISH(6, "pl", false, "ąćęłńóśźż", "nie jest to się że co jak ale"),
+    ITALIAN(7, "it", false, "àèéìòù", "che non sono il di per una ma anche questo"),
+    DUTCH(8, "nl", false, "ë", "ik je het een niet wat en dat is maar"),
+    TURKISH(9, "tr", false, "ğışçöü", "bir ve bu ne da değil ben sen"),
+    UKRAINIAN(10, "uk", true, "іїєґ", "я ти не що це і в на як"),
+    CZECH(11, "cs", false, "ěščřžýáíéůúďťň", "je to se že na ale jak co"),
+    VIETNAMESE(12, "vi", false, "ăâđêôơư", "không là của và có tôi bạn"),
+    INDONESIAN(13, "id", false, "", "yang dan aku kamu tidak ini itu ada"),
+    ROMANIAN(14, "ro", false, "ăâîșțşţ", "și nu este că eu ce pe");
+
+    private static final DictionaryLanguage[] VALUES = values();
+    private final int id;
+    private final String dictionaryName;
+    private final boolean cyrillic;
+    private final String characters;
+    private final String stopWords;
+
+    private DictionaryLanguage(int id, String dictionaryName, boolean cyrillic, String characters, String stopWords) {
+        this.id = id;
+        this.dictionaryName = dictionaryName;
+        this.cyrillic = cyrillic;
+        this.characters = characters;
+        this.stopWords = stopWords;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getDictionaryName() {
+        return this.dictionaryName;
+    }
+
+    /**
+     * @return True if the language is written in Cyrillic script, false if in Latin.
+     */
+    public boolean isCyrillic() {
+        return this.cyrillic;
+    }
+
+    /**
+     * @return Lower case letters that are typical of this language and rare in most others.
+     */
+    public String getCharacters() {
+        return this.characters;
+    }
+
+    /**
+     * @return Most common short words of this language, separated by spaces.
+     */
+    public String getStopWords() {
+        return this.stopWords;
+    }
+
+    public static @Nullable DictionaryLanguage byId(int id) {
+        return id >= 0 && id < VALUES.length ? VALUES[id] : null;
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Same word and phrase splitting as {@link CustomCompression}, but instead of a VarInt per word, writes
+ * a bit stream of {@link WordCode} codewords, so that the most common words take just a few
+ * bits. Words outside of the dictionary are written as escape codeword, followed by their
+ * length in Elias gamma code and their raw bytes. The stream is padded with ones up to a
+ * whole byte; those never decode into a complete codeword, since the longest codeword is all
+ * ones and always longer than the padding.
+ */
+
+public class HuffmanCompression extends Compression {
+    private static final int ID = 0x03;
+    private static final int MIN_CODE_LENGTH = 8;
+
+    @Override
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        int compressionId = (data[offset] >> 4) & 0x0F;
+        if(compressionId != ID) return false;
+        return CustomCompression.hasCustomDictionary(data[offset] & 0x0F);
+    }
+
+    private static WordCode findCode(WordDictionary dictionary) throws IOException {
+        WordCode code = dictionary.getCode();
+        if(code == null || code.getMaxLength() < MIN_CODE_LENGTH)
+            throw new IOException("Dictionary is too small for Huffman compression!");
+        return code;
+    }
+
+    @Override
+    public String getCompressionName() {
+        return "CustomHuffman";
+    }
+
+    @Override
+    public byte[][] getHeaders() {
+        return toOwnHeaders(Compression.COMPRESSION_CUSTOM.getHeaders());
+    }
+
+    /**
+     * @return Headers for the same dictionaries {@link CustomCompression} would pick.
+     */
+    @Override
+    public byte[][] getHeaders(byte[] message) {
+        return toOwnHeaders(Compression.COMPRESSION_CUSTOM.getHeaders(message));
+    }
+
+    private static byte[][] toOwnHeaders(byte[][] headers) {
+        for(int i = 0; i < headers.length; i++)
+            headers[i] = new byte[] { (byte) ((ID << 4) | (headers[i][0] & 0x0F)) };
+        return headers;
+    }
+
+    @Override
+    public byte[] compress(byte[] message) throws IOException {
+        byte[] bestCompressed = null;
+        for(byte[] header : getHeaders(message)) {
+            byte[] compressed = compress(header, message);
+            if(bestCompressed == null || compressed.length < bestCompressed.length)
+                bestCompressed = compressed;
+        }
+        if(bestCompressed == null)
+            throw new IOException("No dictionary is available for Huffman compression!");
+        return bestCompressed;
+    }
+
+    @Override
+    public byte[] compress(byte[] header, byte[] message) throws IOException {
+        if(header.length != 1 || !hasValidHeader(header)) throw new IOException("Invalid header!");
+        int dictId = header[0] & 0x0F;
+        WordDictionary dictionary = CustomCompression.findCustomDictionary(dictId);
+        WordCode code = findCode(dictionary);
+
+        BitWriter out = new BitWriter(message.length + 1);
+        out.writeBits(header[0] & 0xFF, 8);
+        int wordStart = 0;
+        for(int i = 0; i <= message.length; i++) {
+            if(i == wordStart && i < message.length) {
+                int phrase = dictionary.matchPhrase(message, i, message.length - i);
+                if(phrase != -1) {
+                    int length = code.getLength(phrase + 1);
+                    out.writeBits(code.getCode(phrase + 1, length), length);
+                    i += dictionary.getWordLength(phrase);
+                    wordStart = i + 1;
+                    continue;
+                }
+            }
+
+            // Unlike CustomCompression, keeps the empty word after a trailing space
+            if(i < message.length && message[i] != (byte) ' ') continue;
+
+            int symbol = dictionary.indexOf(message, wordStart, i - wordStart) + 1;
+            int length = code.getLength(symbol);
+            out.writeBits(code.getCode(symbol, length), length);
+
+            if(symbol == 0) {
+                out.writeGamma(i - wordStart + 1);
+                for(int j = wordStart; j < i; j++)
+                    out.writeBits(message[j] & 0xFF, 8);
+            }
+
+            wordStart = i + 1;
+        }
+
+        return out.finish();
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, ByteSink decompressed) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        int dictId = data[offset] & 0x0F;
+        WordDictionary dictionary = CustomCompression.findCustomDictionary(dictId);
+        WordCode code = findCode(dictionary);
+
+        BitReader in = new BitReader(data, offset + 1, offset + length);
+        int wordCount = 0;
+        while(!in.isPadding()) {
+            int symbol = readSymbol(in, code);
+            if(wordCount > 0)
+                decompressed.write(' ');
+            wordCount++;
+            if(symbol == 0) {
+                int wordLength = in.readGamma() - 1;
+                decompressed.reserve(wordLength);
+                for(int j = 0; j < wordLength; j++)
+                    decompressed.write(in.readBits(8));
+            }else {
+                if(!dictionary.writeWord(symbol - 1, decompressed))
+                    throw new IOException("Missing word: " + (symbol - 1));
+            }
+        }
+    }
+
+    private static int readSymbol(BitReader in, WordCode code) throws IOException {
+        int codeword = 0;
+        for(int length = 1; length <= code.getMaxLength(); length++) {
+            codeword = (codeword << 1) | in.readBits(1);
+            int symbol = code.getSymbol(codeword, length);
+            if(symbol >= 0) return symbol;
+        }
+        throw new IOException("Invalid codeword!");
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out;
+        private long bits;
+        private int count;
+
+        private BitWriter(int capacity) {
+            this.out = new ByteArrayOutputStream(capacity);
+        }
+
+        private void writeBits(int value, int length) {
+            this.bits = (this.bits << length) | (value & ((1L << length) - 1));
+            this.count += length;
+            while(this.count >= 8) {
+                this.count -= 8;
+                this.out.write((int) (this.bits >>> this.count));
+            }
+        }
+
+        private void writeGamma(int value) {
+            int length = 32 - Integer.numberOfLeadingZeros(value);
+            this.writeBits(0, length - 1);
+            this.writeBits(value, length);
+        }
+
+        private byte[] finish() {
+            if(this.count > 0)
+                this.writeBits(-1, 8 - this.count);
+            return this.out.toByteArray();
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private final int end;
+        private long position;
+
+        private BitReader(byte[] data, int offset, int end) {
+            this.data = data;
+            this.end = end;
+            this.position = offset * 8L;
+        }
+
+        private long remaining() {
+            return this.end * 8L - this.position;
+        }
+
+        /**
+         * @return True if only the trailing ones that pad the last byte are left.
+         */
+        private boolean isPadding() {
+            long remaining = this.remaining();
+            if(remaining >= 8) return false;
+            if(remaining == 0) return true;
+            int mask = (1 << remaining) - 1;
+            return (this.data[this.end - 1] & mask) == mask;
+        }
+
+        private int readBits(int length) throws IOException {
+            if(length > this.remaining()) throw new IOException("Unexpected end of data!");
+            int value = 0;
+            for(int i = 0; i < length; i++) {
+                int bit = (this.data[(int) (this.position >>> 3)] >> (7 - (this.position & 7))) & 1;
+                value = (value << 1) | bit;
+                this.position++;
+            }
+            return value;
+        }
+
+        private int readGamma() throws IOException {
+            int zeros = 0;
+            while(this.readBits(1) == 0) {
+                if(++zeros > 30) throw new IOException("Invalid length!");
+            }
+            return (1 << zeros) | this.readBits(zeros);
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4-style block codec, in pure Java and tuned for short strings: matches may reference the
+ * {@link PresetDictionary} as if it preceded the message, and the encoder searches a few more
+ * candidates per position than LZ4 would, since chat lines are tiny anyway. Sequences follow
+ * the LZ4 block format: a token with literal length and match length nibbles, extra length
+ * bytes, literals, then a little-endian 16-bit offset. The last sequence has no match.
+ */
+
+public class LZCompression extends Compression {
+    private static final byte HEADER = 0x60; // High nibble 6, dictionary version 0
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int MAX_CHAIN = 32;
+    private static final int HASH_BITS = 14;
+    private static DictionaryIndex index = null;
+
+    private static synchronized DictionaryIndex getIndex() throws IOException {
+        if(index == null) {
+            byte[] dictionary = PresetDictionary.get();
+            if(dictionary == null) throw new IOException("Preset dictionary is not available!");
+            index = new DictionaryIndex(dictionary);
+        }
+        return index;
+    }
+
+    @Override
+    public boolean hasValidHeader(byte[] data, int offset, int length) {
+        if(length == 0) return false;
+        return data[offset] == HEADER;
+    }
+
+    @Override
+    public String getCompressionName() {
+        return "LZ";
+    }
+
+    @Override
+    public byte[][] getHeaders() {
+        if(PresetDictionary.get() == null) return new byte[0][];
+        return new byte[][] { { HEADER } };
+    }
+
+    @Override
+    public byte[] compress(byte[] message) throws IOException {
+        DictionaryIndex dict = getIndex();
+        byte[] dictionary = dict.dictionary;
+        ByteSink compressed = new ByteSink(message.length + 16);
+        compressed.write(HEADER);
+
+        // Table for the message itself only needs to be about as big as the message
+        int shift = HASH_BITS - Math.max(6, Math.min(HASH_BITS, 33 - Integer.numberOfLeadingZeros(message.length)));
+        int[] head = new int[1 << (HASH_BITS - shift)];
+        int[] chain = new int[message.length];
+        Arrays.fill(head, -1);
+
+        int anchor = 0, pos = 0;
+        while(pos + MIN_MATCH <= message.length) {
+            int hash = hash(message, pos);
+            int bestLength = 0, bestOffset = 0;
+
+            // Nearest occurrences in the message itself first, then in the dictionary
+            for(int candidate = head[hash >>> shift], steps = 0; candidate >= 0 && steps < MAX_CHAIN; candidate = chain[candidate], steps++) {
+                int length = 0;
+                while(pos + length < message.length && message[candidate + length] == message[pos + length]) length++;
+                if(length > bestLength) {
+                    bestLength = length;
+                    bestOffset = pos - candidate;
+                }
+            }
+
+            for(int candidate = dict.head[hash], steps = 0; candidate >= 0 && steps < MAX_CHAIN; candidate = dict.chain[candidate], steps++) {
+                int offset = dictionary.length - candidate + pos;
+                if(offset > MAX_OFFSET) break;
+                int length = 0;
+                while(pos + length < message.length) {
+                    int source = candidate + length;
+                    byte b = source < dictionary.length ? dictionary[source] : message[source - dictionary.length];
+                    if(b != message[pos + length]) break;
+                    length++;
+                }
+                if(length > bestLength) {
+                    bestLength = length;
+                    bestOffset = offset;
+                }
+            }
+
+            if(bestLength < MIN_MATCH) {
+                chain[pos] = head[hash >>> shift];
+                head[hash >>> shift] = pos++;
+                continue;
+            }
+
+            writeSequence(compressed, message, anchor, pos - anchor, bestOffset, bestLength);
+
+            for(int end = pos + bestLength; pos < end; pos++) {
+                if(pos + MIN_MATCH <= message.length) {
+                    int h = hash(message, pos) >>> shift;
+                    chain[pos] = head[h];
+                    head[h] = pos;
+                }
+            }
+            anchor = pos;
+        }
+
+        if(anchor < message.length)
+            writeSequence(compressed, message, anchor, message.length - anchor, 0, 0);
+
+        return compressed.toByteArray();
+    }
+
+    private static void writeSequence(ByteSink out, byte[] message, int literalStart, int literalLength, int offset, int matchLength) throws IOException {
+        int matchExtra = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+        out.write((Math.min(literalLength, 15) << 4) | Math.min(matchExtra, 15));
+        if(literalLength >= 15) writeLength(out, literalLength - 15);
+        out.write(message, literalStart, literalLength);
+        if(matchLength == 0) return;
+        out.write(offset & 0xFF);
+        out.write(offset >>> 8);
+        if(matchExtra >= 15) writeLength(out, matchExtra - 15);
+    }
+
+    private static void writeLength(ByteSink out, int length) throws IOException {
+        while(length >= 255) {
+            out.write(255);
+            length -= 255;
+        }
+        out.write(length);
+    }
+
+    @Override
+    public byte[] compress(byte[] header, byte[] message) throws IOException {
+        if(header.length != 1 || !hasValidHeader(header)) throw new IOException("Invalid header!");
+        return compress(message);
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, ByteSink out) throws IOException {
+        if(!hasValidHeader(data, offset, length)) throw new IOException("Invalid header!");
+        byte[] dictionary = getIndex().dictionary;
+        int start = out.size(), end = offset + length;
+
+        int pos = offset + 1;
+        while(pos < end) {
+            int token = data[pos++] & 0xFF;
+            int literalLength = token >>> 4;
+            if(literalLength == 15) {
+                int[] result = readLength(data, pos, end);
+                literalLength += result[0];
+                pos = result[1];
+            }
+            if(literalLength > end - pos) throw new IOException("Literals run past the end of data!");
+            out.write(data, pos, literalLength);
+            pos += literalLength;
+            if(pos == end) break; // Last sequence
+
+            if(pos + 2 > end) throw new IOException("Unexpected end of data!");
+            int matchOffset = (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8;
+            pos += 2;
+            int matchLength = token & 0x0F;
+            if(matchLength == 15) {
+                int[] result = readLength(data, pos, end);
+                matchLength += result[0];
+                pos = result[1];
+            }
+            matchLength += MIN_MATCH;
+
+            // Relative to the start of this message, negative sources are in the dictionary
+            int source = out.size() - start - matchOffset;
+            if(matchOffset == 0 || source < -dictionary.length) throw new IOException("Invalid match offset!");
+            out.reserve(matchLength);
+            // Byte by byte, since matches may overlap their own output
+            for(int i = 0; i < matchLength; i++, source++) {
+                out.write(source < 0 ? dictionary[dictionary.length + source] : out.array()[start + source]);
+            }
+        }
+    }
+
+    /**
+     * @return Extra length, and position right after it.
+     */
+    private static int[] readLength(byte[] data, int pos, int end) throws IOException {
+        int length = 0, b;
+        do {
+            if(pos >= end) throw new IOException("Unexpected end of data!");
+            b = data[pos++] & 0xFF;
+            length += b;
+            if(length > MAX_DECOMPRESSION_SIZE) throw new IOException("Length is over the internal limit!");
+        } while(b == 255);
+        return new int[] { length, pos };
+    }
+
+    private static int hash(byte[] data, int pos) {
+        int value = (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF) << 16 | (data[pos + 3] & 0xFF) << 24;
+        return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Hash chains over the dictionary, built once so that every message can search it for free.
+     */
+    private static class DictionaryIndex {
+        private final byte[] dictionary;
+        private final int[] head = new int[1 << HASH_BITS];
+        private final int[] chain;
+
+        private DictionaryIndex(byte[] dictionary) {
+            this.dictionary = dictionary;
+            this.chain = new int[dictionary.length];
+            Arrays.fill(this.head, -1);
+            for(int pos = 0; pos + MIN_MATCH <= dictionary.length; pos++) {
+                int hash = hash(dictionary, pos);
+                this.chain[pos] = this.head[hash];
+                this.head[hash] = pos;
+            }
+        }
+    }
+
+}
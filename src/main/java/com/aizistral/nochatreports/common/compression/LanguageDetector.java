@@ -0,0 +1,200 @@
+package com.aizistral.nochatreports.common.compression;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Guesses the language of a chat message in a single pass over its UTF-8 bytes, so that
+ * {@link CustomCompression} only has to try one or two dictionaries instead of all of them.
+ * Counts letters per script, then scores languages of the dominant script by their typical
+ * characters and stop words. Characters and words shared by several languages are split
+ * between them.
+ */
+
+public final class LanguageDetector {
+    private static final int WEIGHT = 12;
+    private static final Int2IntOpenHashMap CHARACTERS = new Int2IntOpenHashMap();
+    private static final WordDictionary STOP_WORDS;
+    private static final int[] STOP_WORD_LANGUAGES;
+
+    static {
+        Map<String, Integer> stopWords = new LinkedHashMap<>();
+
+        for (DictionaryLanguage language : DictionaryLanguage.values()) {
+            int bit = 1 << language.ordinal();
+            language.getCharacters().codePoints().forEach(cp -> CHARACTERS.put(cp, CHARACTERS.get(cp) | bit));
+
+            for (String word : language.getStopWords().split(" ")) {
+                stopWords.merge(word, bit, (a, b) -> a | b);
+            }
+        }
+
+        // Vietnamese letters with tone marks have their own block
+        for (int cp = 0x1EA0; cp <= 0x1EF9; cp++) {
+            CHARACTERS.put(cp, CHARACTERS.get(cp) | 1 << DictionaryLanguage.VIETNAMESE.ordinal());
+        }
+
+        try {
+            STOP_WORDS = WordDictionary.fromWordList(new ByteArrayInputStream(String.join("\n", stopWords.keySet())
+                    .getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        STOP_WORD_LANGUAGES = stopWords.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private LanguageDetector() {
+        throw new IllegalStateException("Can't touch this");
+    }
+
+    /**
+     * @param available Filters languages that have a dictionary.
+     * @return Best matching language, followed by English for Latin script messages, or by the
+     * runner-up if there is evidence for it. Empty if no available language is written in
+     * script of this message.
+     */
+
+    public static DictionaryLanguage[] detect(byte[] message, Predicate<DictionaryLanguage> available) {
+        DictionaryLanguage[] languages = DictionaryLanguage.values();
+        int[] scores = new int[languages.length];
+        int latin = 0, cyrillic = 0;
+
+        for (int i = 0; i < message.length; ) {
+            int b = message[i] & 0xFF, cp, length;
+
+            if (b < 0x80) {
+                cp = b;
+                length = 1;
+            } else if (b >= 0xC2 && b < 0xE0) {
+                cp = b & 0x1F;
+                length = 2;
+            } else if (b >= 0xE0 && b < 0xF0) {
+                cp = b & 0x0F;
+                length = 3;
+            } else if (b >= 0xF0 && b < 0xF5) {
+                cp = b & 0x07;
+                length = 4;
+            } else {
+                i++;
+                continue;
+            }
+
+            if (i + length > message.length) {
+                break;
+            }
+
+            int k = 1;
+            for (; k < length && (message[i + k] & 0xC0) == 0x80; k++) {
+                cp = (cp << 6) | (message[i + k] & 0x3F);
+            }
+
+            if (k < length) {
+                i++;
+                continue;
+            }
+
+            i += length;
+
+            if (!Character.isLetter(cp)) {
+                continue;
+            } else if (cp < 0x250 || cp >= 0x1E00 && cp < 0x1F00) {
+                latin++;
+            } else if (cp >= 0x400 && cp < 0x530) {
+                cyrillic++;
+            }
+
+            distribute(scores, CHARACTERS.get(Character.toLowerCase(cp)));
+        }
+
+        scoreStopWords(message, scores);
+
+        DictionaryLanguage best = null, runnerUp = null;
+        int bestScore = 0, runnerUpScore = 0;
+
+        for (DictionaryLanguage language : languages) {
+            int letters = language.isCyrillic() ? cyrillic : latin;
+
+            if (!available.test(language) || letters == 0 && (language != DictionaryLanguage.ENGLISH || cyrillic > 0)) {
+                continue;
+            }
+
+            // Letters of the script come first, then evidence for the particular language
+            int score = letters * WEIGHT + scores[language.ordinal()];
+
+            if (best == null || score > bestScore) {
+                runnerUp = best;
+                runnerUpScore = bestScore;
+                best = language;
+                bestScore = score;
+            } else if (scores[language.ordinal()] > 0 && (runnerUp == null || score > runnerUpScore)) {
+                runnerUp = language;
+                runnerUpScore = score;
+            }
+        }
+
+        if (best == null)
+            return new DictionaryLanguage[0];
+        else if (best != DictionaryLanguage.ENGLISH && latin > 0 && available.test(DictionaryLanguage.ENGLISH))
+            return new DictionaryLanguage[] { best, DictionaryLanguage.ENGLISH };
+        else if (runnerUp != null && scores[runnerUp.ordinal()] > 0)
+            return new DictionaryLanguage[] { best, runnerUp };
+        else
+            return new DictionaryLanguage[] { best };
+    }
+
+    private static void scoreStopWords(byte[] message, int[] scores) {
+        byte[] lower = null;
+
+        for (int start = 0, end; start < message.length; start = end + 1) {
+            end = start;
+            while (end < message.length && message[end] != (byte) ' ') end++;
+
+            int wordStart = start, wordEnd = end;
+            while (wordStart < wordEnd && isAsciiSymbol(message[wordStart])) wordStart++;
+            while (wordEnd > wordStart && isAsciiSymbol(message[wordEnd - 1])) wordEnd--;
+
+            if (wordStart == wordEnd) {
+                continue;
+            }
+
+            if (lower == null) {
+                lower = new byte[message.length];
+            }
+
+            for (int i = wordStart; i < wordEnd; i++) {
+                byte b = message[i];
+                lower[i] = b >= 'A' && b <= 'Z' ? (byte) (b + 'a' - 'A') : b;
+            }
+
+            int index = STOP_WORDS.indexOf(lower, wordStart, wordEnd - wordStart);
+
+            if (index >= 0) {
+                distribute(scores, STOP_WORD_LANGUAGES[index]);
+            }
+        }
+    }
+
+    private static void distribute(int[] scores, int languages) {
+        if (languages == 0)
+            return;
+
+        int share = WEIGHT / Integer.bitCount(languages);
+
+        for (int bits = languages; bits != 0; bits &= bits - 1) {
+            scores[Integer.numberOfTrailingZeros(bits)] += Math.max(share, 1);
+        }
+    }
+
+    private static boolean isAsciiSymbol(byte b) {
+        return b >= 0 && !Character.isLetterOrDigit(b);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.aizistral.nochatreports.common.compression;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Byte-level trie over entries of a {@link WordDictionary} that consist of several words,
+ * such as "how are you". Lets the tokenizer find the longest phrase at a word boundary in
+ * time bounded by length of that phrase, regardless of how many phrases there are.
+ */
+
+final class PhraseTrie {
+    private final Long2IntOpenHashMap children = new Long2IntOpenHashMap();
+    private final IntArrayList terminals = new IntArrayList();
+
+    private PhraseTrie() {
+        this.children.defaultReturnValue(-1);
+        this.terminals.add(-1);
+    }
+
+    private void insert(byte[] blob, int start, int end, int index) {
+        int node = 0;
+
+        for (int i = start; i < end; i++) {
+            long key = key(node, blob[i]);
+            int child = this.children.get(key);
+
+            if (child < 0) {
+                child = this.terminals.size();
+                this.terminals.add(-1);
+                this.children.put(key, child);
+            }
+
+            node = child;
+        }
+
+        // Keep the lower index, same as word lookups do
+        if (this.terminals.getInt(node) < 0) {
+            this.terminals.set(node, index);
+        }
+    }
+
+    /**
+     * @return Index of the longest phrase the message continues with from given offset, which
+     * is followed by a space or the end of message, or -1 if there is none.
+     */
+
+    int match(byte[] message, int offset, int length) {
+        int node = 0, best = -1;
+
+        for (int i = offset; i < offset + length; i++) {
+            node = this.children.get(key(node, message[i]));
+
+            if (node < 0) {
+                break;
+            }
+
+            int index = this.terminals.getInt(node);
+
+            if (index >= 0 && (i + 1 == offset + length || message[i + 1] == (byte) ' ')) {
+                best = index;
+            }
+        }
+
+        return best;
+    }
+
+    private static long key(int node, byte value) {
+        return ((long) node << 8) | (value & 0xFF);
+    }
+
+    /**
+     * @return Trie of all entries with a space between two words, or null if there are none.
+     */
+
+    static PhraseTrie build(byte[] blob, int[] offsets) {
+        PhraseTrie trie = null;
+
+        for (int index = 0; index < offsets.length - 1; index++) {
+            int start = offsets[index], end = offsets[index + 1];
+
+            if (!isPhrase(blob, start, end)) {
+                continue;
+            }
+
+            if (trie == null) {
+                trie = new PhraseTrie();
+            }
+
+            trie.insert(blob, start, end, index);
+        }
+
+        return trie;
+    }
+
+    private static boolean isPhrase(byte[] blob, int start, int end) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (blob[i] == (byte) ' ')
+                return true;
+        }
+
+        return false;
+    }
+
+}
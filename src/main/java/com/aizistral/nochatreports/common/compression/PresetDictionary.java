@@ -0,0 +1,61 @@
+package com.aizistral.nochatreports.common.compression;
+
+import com.aizistral.nochatreports.common.NCRCore;
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shared dictionary for general-purpose compressions, which gives them something to reference
+ * even in a single short chat line. Built from the English word list of {@link CustomCompression}:
+ * most frequent words, separated by spaces, with the most frequent ones at the end where they
+ * can be reached with the shortest distances. Changing the way it is built requires new headers
+ * for every compression that uses it, since messages can only be decoded with the exact same
+ * dictionary.
+ */
+
+final class PresetDictionary {
+    static final int SIZE = 32 * 1024;
+    private static boolean loaded = false;
+    private static byte[] dictionary = null;
+
+    private PresetDictionary() {
+        throw new IllegalStateException("Can't touch this");
+    }
+
+    /**
+     * @return Dictionary bytes, which must not be modified, or null if the word list isn't
+     * available.
+     */
+    static synchronized @Nullable byte[] get() {
+        if (loaded) return dictionary;
+        loaded = true;
+
+        WordDictionary words = CustomCompression.findCustomDictionary(DictionaryLanguage.ENGLISH.getId());
+        if (words == null || words.isEmpty()) {
+            NCRCore.LOGGER.error("Word list is not available, preset dictionary won't be built");
+            return null;
+        }
+
+        // Collect most frequent words first, then lay them out in reverse
+        byte[][] selected = new byte[words.size()][];
+        int count = 0, size = 0;
+        while (count < words.size()) {
+            byte[] word = (" " + words.getWord(count)).getBytes(StandardCharsets.UTF_8);
+            if (size + word.length > SIZE) break;
+            selected[count++] = word;
+            size += word.length;
+        }
+
+        byte[] buffer = new byte[size];
+        for (int i = count - 1, pos = 0; i >= 0; i--) {
+            System.arraycopy(selected[i], 0, buffer, pos, selected[i].length);
+            pos += selected[i].length;
+        }
+
+        NCRCore.LOGGER.info("Built preset dictionary: " + count + " words, " + size + " bytes");
+        dictionary = buffer;
+        return dictionary;
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.aizistral.nochatreports.common.compression;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Static canonical Huffman code over symbols of a {@link WordDictionary}: symbol 0 stands for a
+ * word that isn't in the dictionary, and symbol {@code i + 1} for the word with index {@code i}.
+ * Weights are required to never increase with the symbol, so code lengths never decrease with
+ * it either, and the whole code is described by how many symbols there are of each length.
+ */
+
+public final class WordCode {
+    public static final int MAX_LENGTH = 30;
+    private static final long ZIPF_SCALE = 1L << 40;
+    private final int[] counts;
+    private final int[] firstCodes;
+    private final int[] firstSymbols;
+    private final int maxLength;
+
+    private WordCode(int[] counts) {
+        this.counts = counts;
+        this.firstCodes = new int[MAX_LENGTH + 1];
+        this.firstSymbols = new int[MAX_LENGTH + 2];
+
+        int code = 0, symbol = 0, maxLength = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            code = (code + counts[length - 1]) << 1;
+            this.firstCodes[length] = code;
+            this.firstSymbols[length] = symbol;
+            symbol += counts[length];
+
+            if (counts[length] > 0) {
+                maxLength = length;
+            }
+        }
+
+        this.firstSymbols[MAX_LENGTH + 1] = symbol;
+        this.maxLength = maxLength;
+    }
+
+    public int getSymbolCount() {
+        return this.firstSymbols[MAX_LENGTH + 1];
+    }
+
+    /**
+     * @return Length of the longest codeword, which is always the one made of all ones.
+     */
+
+    public int getMaxLength() {
+        return this.maxLength;
+    }
+
+    public int getLength(int symbol) {
+        for (int length = 1; length <= this.maxLength; length++) {
+            if (symbol < this.firstSymbols[length + 1])
+                return length;
+        }
+
+        throw new IllegalArgumentException("No such symbol: " + symbol);
+    }
+
+    /**
+     * @return Codeword of the symbol, in lowest {@link #getLength(int)} bits.
+     */
+
+    public int getCode(int symbol, int length) {
+        return this.firstCodes[length] + symbol - this.firstSymbols[length];
+    }
+
+    /**
+     * @return Symbol with given codeword of given length, or -1 if that codeword is only a
+     * prefix of longer ones.
+     */
+
+    public int getSymbol(int code, int length) {
+        int offset = code - this.firstCodes[length];
+        return offset >= 0 && offset < this.counts[length] ? this.firstSymbols[length] + offset : -1;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            out.writeInt(this.counts[length]);
+        }
+    }
+
+    static WordCode read(DataInputStream in, int symbols) throws IOException {
+        int[] counts = new int[MAX_LENGTH + 1];
+        long total = 0, kraft = 0;
+
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            counts[length] = in.readInt();
+
+            if (counts[length] < 0)
+                throw new IOException("Corrupted word code");
+
+            total += counts[length];
+            kraft += (long) counts[length] << (MAX_LENGTH - length);
+        }
+
+        // Must be complete, otherwise padding of encoded messages could decode into a word
+        if (total != symbols || kraft != 1L << MAX_LENGTH)
+            throw new IOException("Corrupted word code");
+
+        return new WordCode(counts);
+    }
+
+    /**
+     * Builds the code for a dictionary ordered by frequency without known counts, assuming
+     * Zipf's law: frequency of a word is inversely proportional to its rank. Words that aren't
+     * in the dictionary (names, typos, numbers) are assumed to be as common as the top word.
+     */
+
+    static WordCode zipf(int words) {
+        long[] weights = new long[words + 1];
+        weights[0] = ZIPF_SCALE;
+
+        for (int i = 0; i < words; i++) {
+            weights[i + 1] = ZIPF_SCALE / (i + 1);
+        }
+
+        return fromWeights(weights);
+    }
+
+    /**
+     * Builds the code from weights of all symbols. Weights that exceed the preceding ones are
+     * lowered to match them, so that code lengths follow the order of symbols.
+     */
+
+    static WordCode fromWeights(long[] weights) {
+        int symbols = weights.length;
+
+        if (symbols < 2)
+            throw new IllegalArgumentException("Word code needs at least two symbols");
+
+        long[] sorted = new long[symbols];
+        long total = 0;
+
+        // Ascending, as required by the length calculation
+        for (int i = 0; i < symbols; i++) {
+            long weight = Math.max(1, i > 0 ? Math.min(weights[i], sorted[symbols - i]) : weights[i]);
+            sorted[symbols - 1 - i] = weight;
+            total += weight;
+        }
+
+        long floor = 0;
+        long[] lengths = new long[symbols];
+
+        while (true) {
+            for (int i = 0; i < symbols; i++) {
+                lengths[i] = Math.max(sorted[i], floor);
+            }
+
+            computeLengths(lengths);
+
+            // Longest codes belong to the rarest symbols, flatten those until everything fits
+            if (lengths[0] <= MAX_LENGTH) {
+                break;
+            }
+
+            // Floor has to grow even for totals too small to give it a start, or this never ends
+            floor = Math.max(Math.max(1, floor * 2), total >>> MAX_LENGTH);
+        }
+
+        int[] counts = new int[MAX_LENGTH + 1];
+        for (long length : lengths) {
+            counts[(int) length]++;
+        }
+
+        return new WordCode(counts);
+    }
+
+    /**
+     * In-place calculation of Huffman code lengths for weights sorted in ascending order, as
+     * described by Moffat and Katajainen. Replaces every weight with its code length.
+     */
+
+    private static void computeLengths(long[] a) {
+        int n = a.length;
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+
+        // Combine into internal nodes, each storing index of its parent once consumed
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+
+            if (leaf >= n || root < next && a[root] < a[leaf]) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        // Depths of internal nodes
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            a[next] = a[(int) a[next]] + 1;
+        }
+
+        // Depths of leaves
+        int available = 1, used = 0, depth = 0, next = n - 1;
+        root = n - 2;
+
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+    }
+
+}
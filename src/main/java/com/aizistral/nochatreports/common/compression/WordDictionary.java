@@ -0,0 +1,398 @@
+package com.aizistral.nochatreports.common.compression;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable word list that keeps everything in a handful of primitive arrays: UTF-8 bytes of
+ * all words in one blob, an offset table into it, and a minimal perfect hash (hash and
+ * displace) for reverse lookups. Words stay in order of their indices, since those are what
+ * goes on the wire. Also carries the {@link WordCode} used to entropy-code those indices, and
+ * a {@link PhraseTrie} over entries made of several words.
+ */
+
+public final class WordDictionary {
+    private static final int MAGIC = 0x4E435244; // "NCRD"
+    private static final int VERSION = 2;
+    private static final int KEYS_PER_BUCKET = 4;
+    private final byte[] blob;
+    private final int[] offsets;
+    private final int[] seeds;
+    private final int[] slots;
+    private final @Nullable WordCode code;
+    private final @Nullable PhraseTrie phrases;
+
+    private WordDictionary(byte[] blob, int[] offsets, int[] seeds, int[] slots, @Nullable WordCode code) {
+        this.blob = blob;
+        this.offsets = offsets;
+        this.seeds = seeds;
+        this.slots = slots;
+        this.code = code;
+        this.phrases = PhraseTrie.build(blob, offsets);
+    }
+
+    public int size() {
+        return this.offsets.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * @return Index of the word given as UTF-8 bytes, or -1 if it isn't in the dictionary.
+     */
+
+    public int indexOf(byte[] word, int offset, int length) {
+        if (this.isEmpty())
+            return -1;
+
+        long hash = hash(word, offset, length);
+        int slot = slot(hash, this.seeds[bucket(hash, this.seeds.length)], this.slots.length);
+        int index = this.slots[slot];
+
+        if (index < 0)
+            return -1;
+
+        int start = this.offsets[index];
+        return Arrays.equals(this.blob, start, this.offsets[index + 1], word, offset, offset + length) ? index : -1;
+    }
+
+    public int indexOf(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return this.indexOf(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return Index of the longest entry made of several words that the message continues with
+     * from given offset, up to a space or the end of message, or -1 if there is none.
+     */
+
+    public int matchPhrase(byte[] message, int offset, int length) {
+        return this.phrases != null ? this.phrases.match(message, offset, length) : -1;
+    }
+
+    /**
+     * @return Length of the word with given index in UTF-8 bytes.
+     */
+
+    public int getWordLength(int index) {
+        return this.offsets[index + 1] - this.offsets[index];
+    }
+
+    /**
+     * Writes UTF-8 bytes of the word with given index into the sink.
+     *
+     * @return False if there is no word with such index.
+     */
+
+    public boolean writeWord(int index, ByteSink out) throws IOException {
+        if (index < 0 || index >= this.size())
+            return false;
+
+        out.write(this.blob, this.offsets[index], this.offsets[index + 1] - this.offsets[index]);
+        return true;
+    }
+
+    /**
+     * @return Code for indices of this dictionary, or null if the dictionary is empty.
+     */
+
+    public @Nullable WordCode getCode() {
+        return this.code;
+    }
+
+    public String getWord(int index) {
+        return new String(this.blob, this.offsets[index], this.offsets[index + 1] - this.offsets[index],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes this dictionary in the binary format accepted by {@link #read(InputStream)}.
+     */
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(this.size());
+        out.writeInt(this.blob.length);
+        out.writeInt(this.seeds.length);
+        writeInts(out, this.offsets);
+        out.write(this.blob);
+        writeInts(out, this.seeds);
+        writeInts(out, this.slots);
+
+        if (this.code != null) {
+            this.code.write(out);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Reads prebuilt dictionary written by {@link #write(OutputStream)}.
+     */
+
+    public static WordDictionary read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a word dictionary");
+
+        int version = in.readInt();
+
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported word dictionary version");
+
+        int size = in.readInt(), blobLength = in.readInt(), buckets = in.readInt();
+
+        if (size < 0 || blobLength < 0 || buckets < 0 || size > 0 && buckets == 0)
+            throw new IOException("Corrupted word dictionary");
+
+        int[] offsets = readInts(in, size + 1);
+        byte[] blob = new byte[blobLength];
+        in.readFully(blob);
+        int[] seeds = readInts(in, buckets);
+        int[] slots = readInts(in, size);
+
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1] || offsets[i + 1] > blobLength || slots[i] >= size)
+                throw new IOException("Corrupted word dictionary");
+        }
+
+        if (size == 0)
+            return empty();
+
+        // Version 1 had no code, its words were ranked without counts
+        WordCode code = version >= 2 ? WordCode.read(in, size + 1) : WordCode.zipf(size);
+        return new WordDictionary(blob, offsets, seeds, slots, code);
+    }
+
+    public static WordDictionary empty() {
+        return new WordDictionary(new byte[0], new int[1], new int[0], new int[0], null);
+    }
+
+    /**
+     * Builds dictionary from plain text word list, one word per line, most frequent first.
+     * Each word may be followed by a tab and its count in the corpus, which is then used for
+     * the {@link WordCode}; unless all words have one, Zipf's law is assumed instead.
+     */
+
+    public static WordDictionary fromWordList(InputStream stream) throws IOException {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream(1 << 20);
+        IntArrayList offsets = new IntArrayList();
+        LongArrayList counts = new LongArrayList();
+        boolean counted = true;
+        offsets.add(0);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+
+                if (tab >= 0) {
+                    try {
+                        counts.add(Long.parseLong(line.substring(tab + 1).strip()));
+                        line = line.substring(0, tab);
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Invalid word count: " + line, ex);
+                    }
+                } else {
+                    counted = false;
+                }
+
+                blob.write(line.strip().getBytes(StandardCharsets.UTF_8));
+                offsets.add(blob.size());
+            }
+        }
+
+        return build(blob.toByteArray(), offsets.toIntArray(), counted ? counts.toLongArray() : null);
+    }
+
+    private static WordDictionary build(byte[] blob, int[] offsets, @Nullable long[] counts) {
+        int size = offsets.length - 1;
+
+        if (size == 0)
+            return empty();
+
+        WordCode code;
+
+        if (counts != null) {
+            long[] weights = new long[size + 1];
+            // Words outside of the dictionary are about as common as the top one in chat
+            weights[0] = counts[0];
+            System.arraycopy(counts, 0, weights, 1, size);
+            code = WordCode.fromWeights(weights);
+        } else {
+            code = WordCode.zipf(size);
+        }
+
+        int buckets = Math.max(1, size / KEYS_PER_BUCKET);
+        long[] hashes = new long[size];
+        int[] bucketSizes = new int[buckets];
+
+        for (int i = 0; i < size; i++) {
+            hashes[i] = hash(blob, offsets[i], offsets[i + 1] - offsets[i]);
+            bucketSizes[bucket(hashes[i], buckets)]++;
+        }
+
+        // Group keys by bucket
+        int[] bucketStarts = new int[buckets + 1];
+        for (int b = 0; b < buckets; b++) {
+            bucketStarts[b + 1] = bucketStarts[b] + bucketSizes[b];
+        }
+
+        int[] keys = new int[size];
+        int[] fill = Arrays.copyOf(bucketStarts, buckets);
+        for (int i = 0; i < size; i++) {
+            keys[fill[bucket(hashes[i], buckets)]++] = i;
+        }
+
+        // Place largest buckets first, while the table is still mostly empty
+        int maxBucketSize = 0;
+        for (int bucketSize : bucketSizes) {
+            maxBucketSize = Math.max(maxBucketSize, bucketSize);
+        }
+
+        int[] order = new int[buckets];
+        int pos = 0;
+        for (int bucketSize = maxBucketSize; bucketSize >= 0; bucketSize--) {
+            for (int b = 0; b < buckets; b++) {
+                if (bucketSizes[b] == bucketSize) {
+                    order[pos++] = b;
+                }
+            }
+        }
+
+        int[] seeds = new int[buckets];
+        int[] slots = new int[size];
+        Arrays.fill(slots, -1);
+        int[] candidate = new int[maxBucketSize];
+
+        for (int b : order) {
+            int start = bucketStarts[b], end = bucketStarts[b + 1];
+            end = dropDuplicates(blob, offsets, hashes, keys, start, end);
+
+            if (start == end) {
+                continue;
+            }
+
+            for (int seed = 0; ; seed++) {
+                if (tryPlace(hashes, keys, start, end, seed, slots, candidate)) {
+                    seeds[b] = seed;
+
+                    for (int k = start; k < end; k++) {
+                        slots[candidate[k - start]] = keys[k];
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return new WordDictionary(blob, offsets, seeds, slots, code);
+    }
+
+    /**
+     * Moves repeated words of the bucket past its new end, so only their first occurrence
+     * gets a slot.
+     *
+     * @return New end of the bucket.
+     */
+
+    private static int dropDuplicates(byte[] blob, int[] offsets, long[] hashes, int[] keys, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            for (int j = start; j < i; j++) {
+                if (hashes[keys[i]] != hashes[keys[j]]) {
+                    continue;
+                } else if (!Arrays.equals(blob, offsets[keys[i]], offsets[keys[i] + 1], blob, offsets[keys[j]],
+                        offsets[keys[j] + 1]))
+                    throw new IllegalStateException("Unresolvable hash collision in word dictionary");
+
+                // Keep the lower index
+                int dropped = Math.max(keys[i], keys[j]);
+                keys[j] = Math.min(keys[i], keys[j]);
+                keys[i] = keys[--end];
+                keys[end] = dropped;
+                i--;
+                break;
+            }
+        }
+
+        return end;
+    }
+
+    private static boolean tryPlace(long[] hashes, int[] keys, int start, int end, int seed, int[] slots, int[] candidate) {
+        for (int k = start; k < end; k++) {
+            int slot = slot(hashes[keys[k]], seed, slots.length);
+
+            if (slots[slot] >= 0)
+                return false;
+
+            for (int l = start; l < k; l++) {
+                if (candidate[l - start] == slot)
+                    return false;
+            }
+
+            candidate[k - start] = slot;
+        }
+
+        return true;
+    }
+
+    private static long hash(byte[] data, int offset, int length) {
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (data[i] & 0xFF)) * 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    private static int bucket(long hash, int buckets) {
+        return (int) ((hash >>> 32) % buckets);
+    }
+
+    private static int slot(long hash, int seed, int size) {
+        return (int) ((mix(hash + seed * 0x9E3779B97F4A7C15L) >>> 1) % size);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        buffer.asIntBuffer().put(values);
+        out.write(buffer.array());
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count * Integer.BYTES];
+        in.readFully(bytes);
+        int[] values = new int[count];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+        return values;
+    }
+
+}
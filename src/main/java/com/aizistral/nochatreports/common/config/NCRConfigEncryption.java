@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Optional;
 
 import com.aizistral.nochatreports.common.compression.Compression;
+import com.aizistral.nochatreports.common.core.ChunkSender;
 import com.aizistral.nochatreports.common.encryption.Encryption;
 import com.aizistral.nochatreports.common.encryption.Encryptor;
 import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
@@ -26,7 +27,13 @@ public class NCRConfigEncryption extends JSONConfig {
 	private int usedEncryptionKeyIndex = 0;
 	private CompressionPolicy compressionPolicy = CompressionPolicy.WhenNecessary;
 	private @Nullable String specificCompressionName = null; // Null = Find best
+	private boolean includeKeyFingerprint = false; // Breaks decryption on older versions of the mod
+	private int maxMessageChunks = 1; // Values above 1 allow splitting long messages, which older versions of the mod can't read
 	private transient @Nullable Compression specificCompression;
+	// Read by decryption threads, so encryptors and their version are published together
+	private transient volatile KeyRing keyRing = new KeyRing(new Encryptor[0], 0);
+	private transient @Nullable Encryption encryptorsAlgorithm;
+	private transient @Nullable String encryptorsKey;
 
 	protected NCRConfigEncryption() {
 		super(FILE_NAME);
@@ -41,10 +48,7 @@ public class NCRConfigEncryption extends JSONConfig {
 	protected void uponLoad() {
 		this.algorithm = Encryption.getRegistered().stream().filter(e -> e.getName().equals(this.algorithmName))
 				.findFirst().orElse(Encryption.AES_CFB8_BASE64R);
-		if(this.specificCompressionName == null)
-			this.specificCompression = null;
-		else
-			this.specificCompression = Arrays.stream(Compression.getRegistered()).filter(c -> c.getCompressionName().equals(this.specificCompressionName)).findFirst().orElse(null);
+		this.specificCompression = null; // Resolved lazily, to not initialize compressions on load
 		this.validate();
 	}
 
@@ -53,9 +57,38 @@ public class NCRConfigEncryption extends JSONConfig {
 		for(String key : this.encryptionKey.split(",")) {
 			if(!this.algorithm.validateKey(key)) {
 				this.isValid = false;
-				return;
+				break;
+			}
+		}
+		this.rebuildEncryptors();
+	}
+
+	/**
+	 * Constructs encryptors for all configured keys, but only if algorithm or key string
+	 * actually changed since the last time. Bumps {@link #getKeyRingVersion()} when it does.
+	 */
+
+	private void rebuildEncryptors() {
+		if (this.algorithm == this.encryptorsAlgorithm && this.encryptionKey.equals(this.encryptorsKey))
+			return;
+
+		Encryptor<?>[] encryptors = new Encryptor[0];
+
+		if (this.isValid) {
+			try {
+				ArrayList<Encryptor<?>> list = new ArrayList<>();
+				for(String key : this.encryptionKey.split(",")) {
+					list.add(this.algorithm.getProcessor(key));
+				}
+				encryptors = list.toArray(new Encryptor[0]);
+			} catch (InvalidKeyException ex) {
+				throw new RuntimeException(ex); // shouldn't happen due to prior validation
 			}
 		}
+
+		this.keyRing = new KeyRing(encryptors, this.keyRing.version() + 1);
+		this.encryptorsAlgorithm = this.algorithm;
+		this.encryptorsKey = this.encryptionKey;
 	}
 
 	public void toggleEncryption() {
@@ -195,31 +228,44 @@ public class NCRConfigEncryption extends JSONConfig {
 	 */
 
 	public Optional<Encryptor<?>> getEncryptor() {
-		if (!this.isValid())
+		Encryptor<?>[] encryptors = this.keyRing.encryptors();
+
+		if (!this.isValid() || encryptors.length == 0)
 			return Optional.empty();
 
-		try {
-			String[] keys = this.encryptionKey.split(",");
-			int validKeyIndex = getUsedEncryptionKeyIndex() >= 0 && getUsedEncryptionKeyIndex() < keys.length ? getUsedEncryptionKeyIndex() : 0;
-			return Optional.of(this.algorithm.getProcessor(keys[validKeyIndex]));
-		} catch (InvalidKeyException ex) {
-			throw new RuntimeException(ex); // shouldn't happen due to prior validation
-		}
+		int validKeyIndex = getUsedEncryptionKeyIndex() >= 0 && getUsedEncryptionKeyIndex() < encryptors.length ? getUsedEncryptionKeyIndex() : 0;
+		return Optional.of(encryptors[validKeyIndex]);
 	}
 
+	/**
+	 * Safe to call from any thread. Key ring is empty while the key is invalid.
+	 */
+
 	public Encryptor<?>[] getAllEncryptors() {
-		if (!this.isValid())
-			return new Encryptor[0];
+		return this.keyRing.encryptors().clone();
+	}
 
-		try {
-			ArrayList<Encryptor<?>> encryptors = new ArrayList<>();
-			for(String key : this.encryptionKey.split(",")) {
-				encryptors.add(this.algorithm.getProcessor(key));
-			}
-			return encryptors.toArray(new Encryptor[0]);
-		} catch (InvalidKeyException ex) {
-			throw new RuntimeException(ex); // shouldn't happen due to prior validation
-		}
+	/**
+	 * @return Counter that is incremented every time the set of encryptors returned by
+	 * {@link #getAllEncryptors()} changes. Encryptors read after the version are never older
+	 * than that version.
+	 */
+
+	public int getKeyRingVersion() {
+		return this.keyRing.version();
+	}
+
+	public boolean shouldIncludeKeyFingerprint() {
+		return this.includeKeyFingerprint;
+	}
+
+	/**
+	 * @return Maximum number of chunks a message may be split into when sending. Kept below
+	 * what could be received, see {@link ChunkSender} for why.
+	 */
+
+	public int getMaxMessageChunks() {
+		return Math.max(1, Math.min(ChunkSender.MAX_CHUNKS, this.maxMessageChunks));
 	}
 
 	public int getUsedEncryptionKeyIndex() {
@@ -241,6 +287,10 @@ public class NCRConfigEncryption extends JSONConfig {
 	}
 
 	public @Nullable Compression getSpecificCompression() {
+		if (this.specificCompression == null && this.specificCompressionName != null) {
+			this.specificCompression = Arrays.stream(Compression.getRegistered()).filter(c -> c.getCompressionName().equals(this.specificCompressionName)).findFirst().orElse(null);
+		}
+
 		return specificCompression;
 	}
 
@@ -250,6 +300,10 @@ public class NCRConfigEncryption extends JSONConfig {
 		saveFile();
 	}
 
+	private static record KeyRing(Encryptor<?>[] encryptors, int version) {
+		// NO-OP
+	}
+
 	public enum CompressionPolicy {
 		WhenNecessary,
 		Preferred,
@@ -28,7 +28,8 @@ public class NCRServerPreferences extends JSONConfig {
 	}
 
 	public SigningMode getModeUnresolved(@Nullable ServerAddress address) {
-		if (!NCRClient.areSigningKeysPresent())
+		// Keys that are still being fetched count as present, see NCRClient#areSigningKeysAbsent
+		if (NCRClient.areSigningKeysAbsent())
 			return SigningMode.NEVER_FORCED;
 		else if (ServerSafetyState.isInSingleplayer())
 			return SigningMode.NEVER;
@@ -0,0 +1,167 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import com.aizistral.nochatreports.common.encryption.AESEncryptor;
+import com.aizistral.nochatreports.common.encryption.Encapsulation;
+import com.aizistral.nochatreports.common.encryption.MessageChunk;
+
+import net.minecraft.network.chat.Component;
+
+/**
+ * Collects chunks of encrypted messages that were split across several chat packets, and
+ * puts them back together once all of them arrived. Amount of pending messages is bounded;
+ * the oldest ones are evicted when it's exceeded, and incomplete messages expire after a
+ * timeout. Each of them holds at most {@link #MAX_PAYLOAD_LENGTH} bytes.
+ * <p>
+ * Message ID travels in cleartext, so chunks are only put together with those that came
+ * after the same text, which is where server puts sender's name. Should a chunk arrive
+ * for an index that was already filled with something else, the message is dropped rather
+ * than let either of them take over it.
+ */
+
+public class ChunkReassembler {
+	private static final int MAX_PENDING = 32;
+	private static final long TIMEOUT_MILLIS = 60_000;
+	// Sent chunks fit in chat's 256 characters, none of which carries more than a byte
+	private static final int MAX_PAYLOAD_LENGTH = MessageChunk.MAX_COUNT * 256;
+	private static final LinkedHashMap<PendingKey, PendingMessage> PENDING = new LinkedHashMap<>();
+	private static final Result NOT_CHUNK = new Result(Status.NOT_CHUNK, null);
+
+	private ChunkReassembler() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	/**
+	 * Checks whether the message is a chunk, and adds it to its pending message if so.
+	 *
+	 * @return Result with {@link Status#NOT_CHUNK} if message is not a chunk, {@link Status#PENDING}
+	 * if more chunks are needed before it can be displayed, or {@link Status#COMPLETE} with
+	 * message in which last chunk is replaced by whole encrypted payload.
+	 */
+
+	public static synchronized Result accept(Component message) {
+		String full = message.getString();
+		String decryptable = EncryptionUtil.getDecryptable(full);
+
+		// Most messages are turned away here, before anything gets decoded
+		if (!CiphertextFilter.mayBeChunk(decryptable))
+			return NOT_CHUNK;
+
+		MessageChunk chunk = AESEncryptor.readChunk(decryptable);
+
+		if (chunk == null)
+			return NOT_CHUNK;
+
+		long now = System.currentTimeMillis();
+		evictExpired(now);
+
+		PendingKey key = new PendingKey(full.substring(0, full.length() - decryptable.length()), chunk.id());
+		PendingMessage pending = PENDING.get(key);
+
+		if (pending == null) {
+			if (PENDING.size() >= MAX_PENDING) {
+				evictEldest();
+			}
+
+			pending = new PendingMessage(new byte[chunk.count()][], now);
+			PENDING.put(key, pending);
+		} else if (pending.chunks.length != chunk.count()) {
+			PENDING.remove(key);
+			return NOT_CHUNK;
+		}
+
+		byte[] filled = pending.chunks[chunk.index()];
+
+		if (filled == null) {
+			pending.chunks[chunk.index()] = chunk.data();
+			pending.received++;
+			pending.length += chunk.data().length;
+		} else if (!Arrays.equals(filled, chunk.data())) {
+			PENDING.remove(key);
+			return NOT_CHUNK;
+		}
+
+		if (pending.length > MAX_PAYLOAD_LENGTH) {
+			PENDING.remove(key);
+			return NOT_CHUNK;
+		}
+
+		if (pending.received < pending.chunks.length)
+			return new Result(Status.PENDING, null);
+
+		PENDING.remove(key);
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(pending.length);
+		for (byte[] data : pending.chunks) {
+			payload.write(data, 0, data.length);
+		}
+
+		// Chunks of fingerprinted payload are marked, and so must be the payload put together from them
+		String encapsulated = chunk.encapsulation().encode(payload.toByteArray())
+				+ (AESEncryptor.hasKeyFingerprintMarker(decryptable) ? String.valueOf(Encapsulation.KEY_FINGERPRINT_MARKER) : "");
+		Component whole = ComponentCopier.rewrite(message, text -> text.endsWith(decryptable)
+				? text.substring(0, text.length() - decryptable.length()) + encapsulated : null);
+
+		return new Result(Status.COMPLETE, whole != null ? whole : Component.literal(encapsulated));
+	}
+
+	public static synchronized void clear() {
+		PENDING.clear();
+	}
+
+	private static void evictExpired(long now) {
+		Iterator<PendingMessage> iterator = PENDING.values().iterator();
+
+		// Insertion order is also the order of creation, so stop at first one still alive
+		while (iterator.hasNext()) {
+			if (now - iterator.next().created <= TIMEOUT_MILLIS) {
+				break;
+			}
+
+			iterator.remove();
+		}
+	}
+
+	private static void evictEldest() {
+		Iterator<PendingMessage> iterator = PENDING.values().iterator();
+
+		if (iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @param prefix Text in front of the chunk, including sender's name if server shows one.
+	 */
+
+	private static record PendingKey(String prefix, int id) {
+		// NO-OP
+	}
+
+	private static class PendingMessage {
+		private final byte[][] chunks;
+		private final long created;
+		private int received = 0, length = 0;
+
+		private PendingMessage(byte[][] chunks, long created) {
+			this.chunks = chunks;
+			this.created = created;
+		}
+	}
+
+	public record Result(Status status, @Nullable Component message) {
+		// NO-OP
+	}
+
+	public enum Status {
+		NOT_CHUNK, PENDING, COMPLETE;
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import net.minecraft.client.Minecraft;
+
+/**
+ * Sends remaining chunks of a split message a few ticks apart. Vanilla server adds 20 to its
+ * spam counter for every chat message or command, takes one off every tick and kicks once it
+ * goes over 200, so sending all chunks at once could get the sender kicked. With the interval
+ * below and at most {@link #MAX_CHUNKS} chunks, the counter stays under half of that limit.
+ * Main thread only.
+ */
+
+public final class ChunkSender {
+	public static final int MAX_CHUNKS = 8;
+	private static final int INTERVAL_TICKS = 10;
+	private static final Queue<String> QUEUE = new ArrayDeque<>();
+	private static int cooldown = 0;
+
+	private ChunkSender() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	/**
+	 * Queues chunks to be sent after the one that is being sent right now.
+	 */
+
+	public static void enqueue(List<String> chunks) {
+		if (QUEUE.isEmpty()) {
+			cooldown = INTERVAL_TICKS;
+		}
+
+		QUEUE.addAll(chunks);
+	}
+
+	public static void tick(Minecraft client) {
+		if (QUEUE.isEmpty() || --cooldown > 0)
+			return;
+
+		if (client.player == null) {
+			QUEUE.clear();
+			return;
+		}
+
+		String chunk = QUEUE.poll();
+		cooldown = INTERVAL_TICKS;
+
+		if (chunk.startsWith("/")) {
+			client.player.connection.sendCommand(chunk.substring(1));
+		} else {
+			client.player.connection.sendChat(chunk);
+		}
+	}
+
+	public static void clear() {
+		QUEUE.clear();
+	}
+
+}
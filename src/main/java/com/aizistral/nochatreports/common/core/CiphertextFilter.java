@@ -0,0 +1,130 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.aizistral.nochatreports.common.NCRCore;
+import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.encryption.AESEncryptor;
+import com.aizistral.nochatreports.common.encryption.Encapsulation;
+import com.aizistral.nochatreports.common.encryption.Encryptor;
+import com.aizistral.nochatreports.common.encryption.MessageChunk;
+
+/**
+ * Tells apart messages that can't possibly be encrypted by looking at their last word alone,
+ * before any of the encryptors is touched. The word must be written in the alphabet of some
+ * encapsulation, and be long enough to hold the shortest payload any of the configured keys
+ * could produce in it. Counts how many messages pass and how many are rejected; with debug
+ * log enabled, rejected messages are decrypted anyway to count those rejected by mistake.
+ */
+
+public final class CiphertextFilter {
+	private static final AtomicLong PASSED = new AtomicLong(), REJECTED = new AtomicLong(), MISSED = new AtomicLong();
+	private static int keyRingVersion = Integer.MIN_VALUE;
+	private static int minPayloadLength = 0;
+
+	private CiphertextFilter() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	/**
+	 * @param token Last word of the message, as returned by {@link EncryptionUtil#getDecryptable(String)}.
+	 * @return False if the message is definitely not encrypted with any of the configured keys.
+	 */
+
+	public static boolean test(String token) {
+		boolean passed = mayBeCiphertext(token);
+		(passed ? PASSED : REJECTED).incrementAndGet();
+		return passed;
+	}
+
+	/**
+	 * Same kind of check for chunks of split messages, which may be shorter than any whole
+	 * payload. Not counted.
+	 *
+	 * @return False if the word is definitely not a {@link MessageChunk}.
+	 */
+
+	public static boolean mayBeChunk(String token) {
+		return fitsSomeEncapsulation(AESEncryptor.stripKeyFingerprintMarker(token), MessageChunk.HEADER_LENGTH + 1);
+	}
+
+	/**
+	 * Records a message that was rejected, but still turned out to be encrypted.
+	 */
+
+	public static void reportMissed(String token) {
+		MISSED.incrementAndGet();
+		NCRCore.LOGGER.warn("Encrypted message was rejected by ciphertext filter: {}", token);
+	}
+
+	public static long getPassed() {
+		return PASSED.get();
+	}
+
+	public static long getRejected() {
+		return REJECTED.get();
+	}
+
+	/**
+	 * @return Number of rejected messages that were encrypted after all. Only counted while debug
+	 * log is enabled.
+	 */
+
+	public static long getMissed() {
+		return MISSED.get();
+	}
+
+	/**
+	 * Same as {@link #test(String)}, but not counted, for checks that precede actual decryption.
+	 */
+
+	public static boolean mayBeCiphertext(String token) {
+		int minLength = getMinPayloadLength();
+
+		if (minLength < 0)
+			return true; // Some key doesn't use encapsulations, no telling what its output looks like
+		else if (AESEncryptor.hasKeyFingerprintMarker(token))
+			return fitsSomeEncapsulation(AESEncryptor.stripKeyFingerprintMarker(token), minLength + AESEncryptor.KEY_FINGERPRINT_HEADER_LENGTH);
+		else
+			return fitsSomeEncapsulation(token, minLength);
+	}
+
+	private static boolean fitsSomeEncapsulation(String token, int minLength) {
+		int encapsulations = Encapsulation.classify(token);
+
+		for (Encapsulation encapsulation : Encapsulation.getRegistered()) {
+			// Lenient decoders skip unknown characters, so length is only an upper bound, good enough
+			if ((encapsulations & encapsulation.getFlag()) != 0 && token.length() >= encapsulation.getEncodedLength(minLength))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return Shortest payload length among all configured keys, or -1 if some of them isn't AES.
+	 */
+
+	private static synchronized int getMinPayloadLength() {
+		int version = NCRConfig.getEncryption().getKeyRingVersion();
+
+		if (version == keyRingVersion)
+			return minPayloadLength;
+
+		int min = Integer.MAX_VALUE;
+
+		for (Encryptor<?> encryptor : NCRConfig.getEncryption().getAllEncryptors()) {
+			if (!(encryptor instanceof AESEncryptor<?> aesEncryptor)) {
+				min = -1;
+				break;
+			}
+
+			min = Math.min(min, aesEncryptor.getMinPayloadLength());
+		}
+
+		keyRingVersion = version;
+		minPayloadLength = min == Integer.MAX_VALUE ? 0 : min;
+		return minPayloadLength;
+	}
+
+}
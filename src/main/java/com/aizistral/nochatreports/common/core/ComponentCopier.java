@@ -0,0 +1,108 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentContents;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.contents.PlainTextContents.LiteralContents;
+import net.minecraft.network.chat.contents.TranslatableContents;
+
+/**
+ * Structural copying of chat components, without round trip through JSON. Rewriting is
+ * copy-on-write: only the nodes on the path to modified text are copied, everything else
+ * is shared with the original component, which itself is never modified.
+ */
+
+public final class ComponentCopier {
+
+	private ComponentCopier() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	/**
+	 * @return Deep copy of given component, safe to modify without affecting the original.
+	 */
+
+	public static MutableComponent copy(Component component) {
+		return rewrite(component, text -> null, true);
+	}
+
+	/**
+	 * Applies rewriter to every literal text and every string argument of translatable
+	 * text within the component.
+	 *
+	 * @param rewriter Returns new text, or null if given text should stay as it is.
+	 * @return Rewritten copy of the component, or null if rewriter didn't change anything.
+	 */
+
+	public static @Nullable MutableComponent rewrite(Component component, UnaryOperator<String> rewriter) {
+		return rewrite(component, rewriter, false);
+	}
+
+	private static @Nullable MutableComponent rewrite(Component component, UnaryOperator<String> rewriter, boolean copyAll) {
+		ComponentContents contents = rewriteContents(component.getContents(), rewriter, copyAll);
+		List<Component> siblings = component.getSiblings();
+		List<Component> newSiblings = null;
+
+		for (int i = 0; i < siblings.size(); i++) {
+			Component sibling = rewrite(siblings.get(i), rewriter, copyAll);
+
+			if (sibling != null) {
+				if (newSiblings == null) {
+					newSiblings = new ArrayList<>(siblings);
+				}
+
+				newSiblings.set(i, sibling);
+			}
+		}
+
+		if (contents == null && newSiblings == null && !copyAll)
+			return null;
+
+		MutableComponent copy = MutableComponent.create(contents != null ? contents : component.getContents());
+		copy.setStyle(component.getStyle());
+		copy.getSiblings().addAll(newSiblings != null ? newSiblings : siblings);
+		return copy;
+	}
+
+	private static @Nullable ComponentContents rewriteContents(ComponentContents contents, UnaryOperator<String> rewriter, boolean copyAll) {
+		if (contents instanceof LiteralContents literal) {
+			String text = rewriter.apply(literal.text());
+			return text != null ? new LiteralContents(text) : null;
+		} else if (contents instanceof TranslatableContents translatable) {
+			Object[] args = translatable.getArgs();
+			Object[] newArgs = copyAll ? args.clone() : null;
+
+			for (int i = 0; i < args.length; i++) {
+				Object arg = null;
+
+				if (args[i] instanceof Component component) {
+					arg = rewrite(component, rewriter, copyAll);
+				} else if (args[i] instanceof String str) {
+					// This can now happen for some reason
+					arg = rewriter.apply(str);
+				}
+
+				if (arg != null) {
+					if (newArgs == null) {
+						newArgs = args.clone();
+					}
+
+					newArgs[i] = arg;
+				}
+			}
+
+			// Always create new contents, since translatable ones cache some aspects of their args
+			return newArgs != null ? new TranslatableContents(translatable.getKey(), translatable.getFallback(), newArgs) : null;
+		}
+
+		// Other kinds of contents are immutable and can be shared
+		return null;
+	}
+
+}
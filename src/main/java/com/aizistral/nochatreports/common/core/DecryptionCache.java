@@ -0,0 +1,73 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.encryption.DecryptionResult;
+import com.aizistral.nochatreports.common.encryption.Encryptor;
+
+/**
+ * Remembers what recently seen ciphertexts decrypted into with each key, including the ones
+ * that didn't decrypt at all, so that the same message shown in chat, narrated and echoed
+ * back by a relay is only decrypted once. Least recently used entries are evicted first,
+ * and everything is dropped once {@link NCRConfig#getEncryption() key ring} changes.
+ * Safe to use from any thread.
+ */
+
+public final class DecryptionCache {
+	private static final int CAPACITY = 256;
+	private static final LinkedHashMap<Key, DecryptionResult> CACHE = new LinkedHashMap<>(CAPACITY * 4 / 3 + 1, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, DecryptionResult> eldest) {
+			return this.size() > CAPACITY;
+		}
+	};
+	private static int keyRingVersion = Integer.MIN_VALUE;
+
+	private DecryptionCache() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	/**
+	 * @param ciphertext Encrypted part of the message, as returned by
+	 * {@link EncryptionUtil#getDecryptable(String)}.
+	 * @return Successful decryption with given encryptor, or empty if ciphertext doesn't decrypt
+	 * with it.
+	 */
+
+	public static Optional<DecryptionResult> decrypt(String ciphertext, Encryptor<?> encryptor) {
+		Key key = new Key(ciphertext, encryptor);
+		int version = NCRConfig.getEncryption().getKeyRingVersion();
+
+		synchronized (CACHE) {
+			if (version != keyRingVersion) {
+				CACHE.clear();
+				keyRingVersion = version;
+			}
+
+			DecryptionResult cached = CACHE.get(key);
+
+			if (cached != null)
+				return cached.isSuccess() ? Optional.of(cached) : Optional.empty();
+		}
+
+		// Decrypted without holding the lock, at worst some other thread does the same in parallel
+		DecryptionResult result = encryptor.tryDecrypt(ciphertext);
+
+		synchronized (CACHE) {
+			if (version == keyRingVersion) {
+				CACHE.put(key, result);
+			}
+		}
+
+		return result.isSuccess() ? Optional.of(result) : Optional.empty();
+	}
+
+	// Encryptors are compared by identity, those of an old key ring never match the new one
+	private static record Key(String ciphertext, Encryptor<?> encryptor) {
+		// NO-OP
+	}
+
+}
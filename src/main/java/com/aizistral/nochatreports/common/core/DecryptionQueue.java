@@ -0,0 +1,96 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.aizistral.nochatreports.common.NCRCore;
+import com.aizistral.nochatreports.common.core.EncryptionUtil.DetailedDecryptionInfo;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.chat.Component;
+
+/**
+ * Decrypts received chat messages on a small pool of background threads, so that a flood of
+ * them doesn't stall render thread. Results are handed back on main thread in the same order
+ * messages were submitted, even if they finish out of order. Once the pool has fallen behind
+ * by more than it can queue, further messages are turned away and have to be decrypted on
+ * main thread like before, which slows down intake to whatever pace decryption can keep up with.
+ */
+
+public final class DecryptionQueue {
+	private static final int THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+	private static final int CAPACITY = 64;
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+	private static final Queue<Pending> PENDING = new ArrayDeque<>(); // Main thread only
+
+	private DecryptionQueue() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	private static ThreadPoolExecutor createExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(CAPACITY), task -> {
+					Thread thread = new Thread(task, "NCR Decryption #" + THREAD_COUNTER.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Starts decrypting the message in background, unless the pool has fallen too far behind.
+	 * Must be called on main thread.
+	 *
+	 * @param onDecrypted Called on main thread with the result, if the message turns out to be
+	 * encrypted.
+	 * @return False if the queue is full, in which case the caller should decrypt the message
+	 * by itself.
+	 */
+
+	public static boolean trySubmit(Component message, Consumer<DetailedDecryptionInfo> onDecrypted) {
+		CompletableFuture<Optional<DetailedDecryptionInfo>> future;
+
+		try {
+			future = CompletableFuture.supplyAsync(() -> EncryptionUtil.tryDecryptDetailed(message), EXECUTOR);
+		} catch (RejectedExecutionException ex) {
+			return false;
+		}
+
+		PENDING.add(new Pending(future, onDecrypted));
+		future.whenComplete((result, ex) -> Minecraft.getInstance().tell(DecryptionQueue::drain));
+		return true;
+	}
+
+	/**
+	 * Hands out finished results from the head of the queue, stopping at the first one that
+	 * is still in progress.
+	 */
+
+	private static void drain() {
+		while (!PENDING.isEmpty() && PENDING.peek().future().isDone()) {
+			Pending pending = PENDING.poll();
+
+			try {
+				pending.future().join().ifPresent(pending.onDecrypted());
+			} catch (Exception ex) {
+				NCRCore.LOGGER.error("Failed to decrypt chat message", ex);
+			}
+		}
+	}
+
+	private static record Pending(CompletableFuture<Optional<DetailedDecryptionInfo>> future,
+			Consumer<DetailedDecryptionInfo> onDecrypted) {
+		// NO-OP
+	}
+
+}
@@ -1,21 +1,21 @@
 package com.aizistral.nochatreports.common.core;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import com.aizistral.nochatreports.common.compression.Compression;
 import com.aizistral.nochatreports.common.NCRCore;
 import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.config.NCRConfigEncryption.CompressionPolicy;
 import com.aizistral.nochatreports.common.encryption.AESEncryptor;
+import com.aizistral.nochatreports.common.encryption.DecryptionResult;
 import com.aizistral.nochatreports.common.encryption.Encryptor;
+import com.aizistral.nochatreports.common.encryption.MessageChunk;
 
 import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
-import net.minecraft.core.RegistryAccess;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.chat.ComponentContents;
-import net.minecraft.network.chat.MutableComponent;
-import net.minecraft.network.chat.contents.PlainTextContents.LiteralContents;
-import net.minecraft.network.chat.contents.TranslatableContents;
 
 public class EncryptionUtil {
 
@@ -33,15 +33,7 @@ public class EncryptionUtil {
 
 
 	public static Optional<Component> tryDecrypt(Component component) {
-		// Try out all encryptors
-		for(Encryptor<?> encryption : NCRConfig.getEncryption().getAllEncryptors()) {
-			Component copy = recreate(component);
-
-			if(tryDecrypt(copy, encryption)) {
-				return Optional.of(copy);
-			}
-		}
-		return Optional.empty();
+		return tryDecryptDetailed(component).map(DetailedDecryptionInfo::decrypted);
 	}
 
 	public static Optional<DetailedDecryptionInfo> tryDecryptDetailed(String message) {
@@ -49,95 +41,272 @@ public class EncryptionUtil {
 	}
 
 	public static Optional<DetailedDecryptionInfo> tryDecryptDetailed(Component component) {
-		// Try out all encryptors
-		int index = 0;
-		for(Encryptor<?> encryption : NCRConfig.getEncryption().getAllEncryptors()) {
-			Component copy = recreate(component);
-
-			if(tryDecrypt(copy, encryption)) {
-				String encapsulation = null;
-				Compression compression = null;
-				Float compressionRatio = null;
-				if(encryption instanceof AESEncryptor<?> aesEncryption) {
-					encapsulation = aesEncryption.getDecryptLastUsedEncapsulation();
-					compression = aesEncryption.getDecryptLastUsedCompression();
-					compressionRatio = aesEncryption.getDecryptLastUsedCompressionRatio();
-				}
-				return Optional.of(new DetailedDecryptionInfo(copy, index, encapsulation, compression, compressionRatio));
+		// Encrypted part normally ends up in the last word of the message
+		String token = getDecryptable(component.getString());
+
+		if (!CiphertextFilter.test(token)) {
+			if (NCRConfig.getCommon().enableDebugLog() && decryptDetailed(component, token).isPresent()) {
+				CiphertextFilter.reportMissed(token);
 			}
-			index++;
+
+			return Optional.empty();
 		}
+
+		return decryptDetailed(component, token);
+	}
+
+	/**
+	 * Cheap check of whether the message may need decrypting, that doesn't touch any encryptor.
+	 * Doesn't count towards {@link CiphertextFilter} stats.
+	 */
+
+	public static boolean mayBeEncrypted(Component component) {
+		return CiphertextFilter.mayBeCiphertext(getDecryptable(component.getString()));
+	}
+
+	private static Optional<DetailedDecryptionInfo> decryptDetailed(Component component, String token) {
+		int fingerprint = AESEncryptor.readKeyFingerprint(token);
+		Encryptor<?>[] encryptors = NCRConfig.getEncryption().getAllEncryptors();
+
+		// Fingerprint marker can't be faked by legacy payloads, so keys that don't match it are never tried
+		for (int index = 0; index < encryptors.length; index++) {
+			if (!matchesKeyFingerprint(encryptors[index], fingerprint)) {
+				continue;
+			}
+
+			DecryptionResult[] details = new DecryptionResult[1];
+			var decrypted = tryDecrypt(component, encryptors[index], decryption -> details[0] = decryption);
+
+			if(decrypted.isPresent()) {
+				DecryptionResult last = details[0];
+				return Optional.of(new DetailedDecryptionInfo(decrypted.get(), index, last.encapsulation(), last.compression(), last.compressionRatio()));
+			}
+		}
+
 		return Optional.empty();
 	}
 
+	private static boolean matchesKeyFingerprint(Encryptor<?> encryptor, int fingerprint) {
+		if (fingerprint == -1)
+			return true;
+		else if (encryptor instanceof AESEncryptor<?> aesEncryptor)
+			return aesEncryptor.getKeyFingerprint() == fingerprint;
+		else
+			return false;
+	}
 
+	/**
+	 * @return Decrypted copy of the component, if anything in it could be decrypted. Original
+	 * component is left untouched.
+	 */
 
-	public static boolean tryDecrypt(Component component, Encryptor<?> encryptor) {
-		boolean decryptedSiblings = false;
-		for (Component sibling : component.getSiblings()) {
-			if (tryDecrypt(sibling, encryptor)) {
-				decryptedSiblings = true;
+	public static Optional<Component> tryDecrypt(Component component, Encryptor<?> encryptor) {
+		return tryDecrypt(component, encryptor, decryption -> {});
+	}
+
+	/**
+	 * @param onDecrypted Called for every piece of text that was decrypted, in order.
+	 */
+
+	private static Optional<Component> tryDecrypt(Component component, Encryptor<?> encryptor, Consumer<DecryptionResult> onDecrypted) {
+		return Optional.ofNullable(ComponentCopier.rewrite(component, text -> tryDecrypt(text, encryptor, onDecrypted).orElse(null)));
+	}
+
+	public static Optional<String> tryDecrypt(String message, Encryptor<?> encryptor) {
+		return tryDecrypt(message, encryptor, decryption -> {});
+	}
+
+	private static Optional<String> tryDecrypt(String message, Encryptor<?> encryptor, Consumer<DecryptionResult> onDecrypted) {
+		String decryptable = getDecryptable(message);
+
+		if (decryptable.isEmpty())
+			return Optional.empty();
+
+		return DecryptionCache.decrypt(decryptable, encryptor).map(decryption -> {
+			onDecrypted.accept(decryption);
+			return message.substring(0, message.length() - decryptable.length()) + decryption.text();
+		});
+	}
+
+	/**
+	 * Encrypts as much of the message as fits into given length. If it doesn't fit whole, the
+	 * cut point is found by binary search, starting from the exact length prediction for
+	 * uncompressed payload, so that only a logarithmic number of encryptions is needed.
+	 * Message is never cut in the middle of a surrogate pair or a formatting code.
+	 *
+	 * @return Encrypted message, or empty string if not even a single character fits.
+	 */
+
+	public static String encryptToFit(String noencrypt, Encryptor<?> encryptor, String encrypt, int maxLength) {
+		String encrypted = encrypt(noencrypt, encryptor, encrypt);
+
+		if (encrypted.length() <= maxLength)
+			return encrypted;
+
+		// Longest cut known to fit and shortest known not to
+		String best = "";
+		int low = 0, high = encrypt.length();
+		int prediction = predictFittingLength(noencrypt, encryptor, encrypt, maxLength);
+
+		int predicted = prediction > 0 ? getCutPoint(encrypt, prediction, low, high) : low;
+
+		if (predicted > low) {
+			encrypted = encrypt(noencrypt, encryptor, encrypt.substring(0, predicted));
+
+			if (encrypted.length() <= maxLength) {
+				best = encrypted;
+				low = predicted;
+			} else {
+				high = predicted;
 			}
 		}
 
-		if (component.getContents() instanceof LiteralContents literal) {
-			var decrypted = tryDecrypt(literal.text(), encryptor);
+		while (high - low > 1) {
+			int cut = getCutPoint(encrypt, (low + high) >>> 1, low, high);
+
+			if (cut <= low) {
+				break;
+			}
+
+			encrypted = encrypt(noencrypt, encryptor, encrypt.substring(0, cut));
 
-			if (decrypted.isPresent()) {
-				((MutableComponent)component).contents = new LiteralContents(decrypted.get());
-				return true;
+			if (encrypted.length() <= maxLength) {
+				best = encrypted;
+				low = cut;
+			} else {
+				high = cut;
 			}
-		} else if (component.getContents() instanceof TranslatableContents translatable) {
-			boolean didChangeArgs = false;
-			for (int i = 0; i < translatable.args.length; i++) {
-				Object arg = translatable.args[i];
-				if (arg instanceof MutableComponent mutable) {
-					if (tryDecrypt(mutable, encryptor)) {
-						decryptedSiblings = true;
-					}
-				} else if(arg instanceof String str) {
-					// This can now happen for some reason
-					var decrypted = tryDecrypt(str, encryptor);
-
-					if (decrypted.isPresent()) {
-						translatable.args[i] = decrypted.get();
-						decryptedSiblings = true;
-						didChangeArgs = true;
-					}
-
-				}
+		}
+
+		return best;
+	}
+
+	private static String encrypt(String noencrypt, Encryptor<?> encryptor, String encrypt) {
+		var config = NCRConfig.getEncryption();
+
+		if (encryptor instanceof AESEncryptor<?> aesEncryptor)
+			return aesEncryptor.encryptAndCompress(noencrypt, encrypt, getCompressionPolicy(),
+					getSpecificCompression(), config.shouldIncludeKeyFingerprint());
+		else
+			return noencrypt + encryptor.encrypt("#%" + encrypt);
+	}
+
+	/**
+	 * @return Configured compression policy, or {@link CompressionPolicy#Never} while compression
+	 * is still warming up, so that sending never waits for it.
+	 */
+
+	private static CompressionPolicy getCompressionPolicy() {
+		return EncryptionWarmup.isCompressionReady() ? NCRConfig.getEncryption().getCompressionPolicy() : CompressionPolicy.Never;
+	}
+
+	private static @Nullable Compression getSpecificCompression() {
+		return EncryptionWarmup.isCompressionReady() ? NCRConfig.getEncryption().getSpecificCompression() : null;
+	}
+
+	/**
+	 * Encrypts the message, splitting it into several chunks if it doesn't fit into given length.
+	 * Unlike encrypting each part separately, the message is compressed and encrypted once as a
+	 * whole, and only the resulting payload is split.
+	 *
+	 * @return List of encrypted messages to send in order. If message needs more than allowed
+	 * number of chunks, falls back to {@link #encryptToFit(String, Encryptor, String, int)}.
+	 */
+
+	public static List<String> encryptChunked(String noencrypt, Encryptor<?> encryptor, String encrypt, int maxLength, int maxChunks) {
+		if (!(encryptor instanceof AESEncryptor<?> aesEncryptor)) {
+			String encrypted = encrypt(noencrypt, encryptor, encrypt);
+			return List.of(encrypted.length() <= maxLength ? encrypted : encryptToFit(noencrypt, encryptor, encrypt, maxLength));
+		}
+
+		// Payload is built once, and either sent whole or split into chunks
+		boolean keyFingerprint = NCRConfig.getEncryption().shouldIncludeKeyFingerprint();
+		byte[] payload = aesEncryptor.encryptAndCompressPayload(encrypt, getCompressionPolicy(), getSpecificCompression(),
+				keyFingerprint, noencrypt.length());
+
+		if (noencrypt.length() + aesEncryptor.getEncapsulatedLength(payload.length, keyFingerprint) <= maxLength)
+			return List.of(noencrypt + aesEncryptor.encapsulate(payload, keyFingerprint));
+
+		if (maxChunks > 1) {
+			int chunkSize = 0;
+			while (noencrypt.length() + aesEncryptor.getEncapsulatedLength(MessageChunk.HEADER_LENGTH + chunkSize + 1, keyFingerprint) <= maxLength) {
+				chunkSize++;
 			}
 
-			if(didChangeArgs) {
-				// Re-create component as it otherwise caches some aspects of the old args
-				((MutableComponent) component).contents = new TranslatableContents(translatable.getKey(), translatable.getFallback(), translatable.getArgs());
-				return true;
+			List<MessageChunk> chunks = MessageChunk.split(payload, chunkSize, aesEncryptor.getAlgorithm().getEncapsulation());
+
+			if (!chunks.isEmpty() && chunks.size() <= maxChunks)
+				return chunks.stream().map(chunk -> noencrypt + aesEncryptor.encapsulate(chunk.toPayload(), keyFingerprint)).toList();
+		}
+
+		return List.of(encryptToFit(noencrypt, encryptor, encrypt, maxLength));
+	}
+
+	/**
+	 * @return Number of leading characters of the message that are guaranteed to fit when
+	 * encrypted without compression, or 0 if that can't be predicted.
+	 */
+
+	private static int predictFittingLength(String noencrypt, Encryptor<?> encryptor, String encrypt, int maxLength) {
+		var config = NCRConfig.getEncryption();
+
+		// Only policy that never falls back to uncompressed payload
+		if (!(encryptor instanceof AESEncryptor<?> aesEncryptor) || getCompressionPolicy() == CompressionPolicy.Always)
+			return 0;
+
+		int bytes = 2; // "#%" framing
+		int fitting = 0;
+
+		for (int i = 0; i < encrypt.length(); i++) {
+			char ch = encrypt.charAt(i);
+			bytes += ch < 0x80 ? 1 : ch < 0x800 ? 2 : Character.isSurrogate(ch) ? 2 : 3;
+
+			if (noencrypt.length() + aesEncryptor.predictEncryptedLength(bytes, config.shouldIncludeKeyFingerprint()) > maxLength) {
+				break;
 			}
+
+			fitting = i + 1;
 		}
 
-		return decryptedSiblings;
+		return fitting;
 	}
 
-	public static Optional<String> tryDecrypt(String message, Encryptor<?> encryptor) {
-		try {
-			// Invis2 uses space. Don't split on spaces if other char (\u200c) for invisi2 found.
-			String messageCopy = message.replace('：', ' ');
-			String[] splat = message.contains(" ") && !messageCopy.contains("\u200c") ? messageCopy.split(" ") : new String[] { message };
-			String decryptable = splat[splat.length-1];
-
-			String decrypted = encryptor.decrypt(decryptable);
-
-			if (decrypted.startsWith("#%") || decrypted.startsWith("#?"))
-				return Optional.of(message.substring(0, message.length() - decryptable.length()) + decrypted.substring(2, decrypted.length()));
-			else
-				return Optional.empty();
-		} catch (Exception ex) {
-			return Optional.empty();
+	/**
+	 * @return Valid cut point closest to given index from below, or from above if there is none
+	 * down to low bound. Returns low if there are no valid cut points between low and high.
+	 */
+
+	private static int getCutPoint(String message, int index, int low, int high) {
+		for (int i = index; i > low; i--) {
+			if (isCutPoint(message, i))
+				return i;
 		}
+
+		for (int i = index + 1; i < high; i++) {
+			if (isCutPoint(message, i))
+				return i;
+		}
+
+		return low;
+	}
+
+	private static boolean isCutPoint(String message, int index) {
+		if (index <= 0 || index >= message.length())
+			return true;
+
+		char before = message.charAt(index - 1);
+		return before != '\u00a7' && !(Character.isHighSurrogate(before) && Character.isLowSurrogate(message.charAt(index)));
+	}
+
+	static String getDecryptable(String message) {
+		// Invis2 uses space. Don't split on spaces if other char (\u200c) for invisi2 found.
+		String messageCopy = message.replace('：', ' ');
+		String[] splat = message.contains(" ") && !messageCopy.contains("\u200c") ? messageCopy.split(" ") : new String[] { message };
+		return splat.length > 0 ? splat[splat.length-1] : "";
 	}
 
 	public static Component recreate(Component component) {
-		return Component.Serializer.fromJson(Component.Serializer.toJson(component, RegistryAccess.EMPTY), RegistryAccess.EMPTY);
+		return ComponentCopier.copy(component);
 	}
 
 }
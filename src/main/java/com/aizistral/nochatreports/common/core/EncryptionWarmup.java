@@ -0,0 +1,119 @@
+package com.aizistral.nochatreports.common.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.aizistral.nochatreports.common.NCRCore;
+import com.aizistral.nochatreports.common.compression.Compression;
+import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.encryption.Encryption;
+import com.aizistral.nochatreports.common.encryption.Encryptor;
+
+/**
+ * Performs expensive one-time setup of compression and encryption on a background thread,
+ * so that the first encrypted message of a session doesn't cause a hitch on render thread.
+ * Until it's finished, messages are sent uncompressed and decryption of received ones is
+ * deferred.
+ */
+
+public final class EncryptionWarmup {
+	private static final CompletableFuture<Void> COMPRESSION = new CompletableFuture<>();
+	private static final CompletableFuture<Void> CRYPTO = new CompletableFuture<>();
+	private static final CompletableFuture<Void> ALL = CompletableFuture.allOf(COMPRESSION, CRYPTO);
+	private static boolean started = false;
+
+	private EncryptionWarmup() {
+		throw new IllegalStateException("Can't touch this");
+	}
+
+	public static synchronized void start() {
+		if (started)
+			return;
+
+		started = true;
+		Executor executor = task -> {
+			Thread thread = new Thread(task, "NCR Warm-up");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		};
+
+		CompletableFuture.runAsync(EncryptionWarmup::warmUpCrypto, executor).whenComplete((result, ex) -> {
+			complete(CRYPTO, "Encryption", ex);
+		});
+
+		CompletableFuture.runAsync(EncryptionWarmup::warmUpCompression, executor).whenComplete((result, ex) -> {
+			complete(COMPRESSION, "Compression", ex);
+		});
+	}
+
+	/**
+	 * @return Future completed once all registered compressions have loaded their natives and
+	 * dictionaries. Completes normally even if some of them failed to.
+	 */
+
+	public static CompletableFuture<Void> compression() {
+		return COMPRESSION;
+	}
+
+	/**
+	 * @return Future completed once JCE providers, secure random and configured encryptors have
+	 * been exercised at least once.
+	 */
+
+	public static CompletableFuture<Void> crypto() {
+		return CRYPTO;
+	}
+
+	public static CompletableFuture<Void> all() {
+		return ALL;
+	}
+
+	public static boolean isCompressionReady() {
+		return COMPRESSION.isDone();
+	}
+
+	public static boolean isReady() {
+		return ALL.isDone();
+	}
+
+	private static void warmUpCompression() {
+		long start = System.nanoTime();
+
+		// Loads Brotli natives in static init, and dictionaries when asked for headers
+		for (Compression compression : Compression.getRegistered()) {
+			compression.getHeaders();
+		}
+
+		NCRConfig.getEncryption().getSpecificCompression();
+		NCRCore.LOGGER.debug("Compression warm-up took {} ms", (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private static void warmUpCrypto() {
+		long start = System.nanoTime();
+
+		for (Encryption encryption : Encryption.getRegistered()) {
+			roundTrip(encryption.getRandomProcessor());
+		}
+
+		for (Encryptor<?> encryptor : NCRConfig.getEncryption().getAllEncryptors()) {
+			roundTrip(encryptor);
+		}
+
+		NCRCore.LOGGER.debug("Encryption warm-up took {} ms", (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private static void roundTrip(Encryptor<?> encryptor) {
+		encryptor.decrypt(encryptor.encrypt("#%Warm-up"));
+	}
+
+	private static void complete(CompletableFuture<Void> future, String name, Throwable ex) {
+		if (ex != null) {
+			// Whatever failed here will fail the same way when actually used, no point in waiting
+			NCRCore.LOGGER.error(name + " warm-up failed", ex);
+		}
+
+		future.complete(null);
+	}
+
+}
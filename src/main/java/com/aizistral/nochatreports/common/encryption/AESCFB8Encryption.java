@@ -4,25 +4,13 @@ import java.security.InvalidKeyException;
 
 public class AESCFB8Encryption extends AESEncryption {
 
-	protected AESCFB8Encryption(String encapsulation) {
+	protected AESCFB8Encryption(Encapsulation encapsulation) {
 		super("CFB8", "NoPadding", true, encapsulation);
 	}
 
 	@Override
 	public AESCFB8Encryptor getProcessor(String key) throws InvalidKeyException {
-		if (this.getEncapsulation().equalsIgnoreCase("Base64")) {
-			return new AESCFB8Encryptor(key, Encryption.AES_CFB8_BASE64);
-		} else if (this.getEncapsulation().equalsIgnoreCase("Base64R")) {
-			return new AESCFB8Encryptor(key, Encryption.AES_CFB8_BASE64R);
-		} else if (this.getEncapsulation().equalsIgnoreCase("Sus16")) {
-			return new AESCFB8Encryptor(key, Encryption.AES_CFB8_SUS16);
-		} else if (this.getEncapsulation().equalsIgnoreCase("MC256")) {
-			return new AESCFB8Encryptor(key, Encryption.AES_CFB8_MC256);
-		} else if (this.getEncapsulation().equalsIgnoreCase("Invis2")) {
-			return new AESCFB8Encryptor(key, Encryption.AES_CFB8_INVIS2);
-		} else {
-			throw new RuntimeException("Unknown Encapsulation: " + this.getEncapsulation());
-		}
+		return new AESCFB8Encryptor(key, this);
 	}
 
 	@Override
@@ -11,6 +11,7 @@ import javax.crypto.spec.IvParameterSpec;
 import net.minecraft.util.Tuple;
 
 public class AESCFB8Encryptor extends AESEncryptor<AESCFB8Encryption> {
+	private static final ThreadLocal<IVScratch> IV_SCRATCH = ThreadLocal.withInitial(IVScratch::new);
 
 	protected AESCFB8Encryptor(String key, AESCFB8Encryption encryption) throws InvalidKeyException {
 		super(key, encryption);
@@ -29,15 +30,23 @@ public class AESCFB8Encryptor extends AESEncryptor<AESCFB8Encryption> {
 	}
 
 	@Override
-	protected Tuple<AlgorithmParameterSpec, byte[]> splitIV(byte[] message) throws UnsupportedOperationException {
-		ByteBuffer buffer = ByteBuffer.wrap(message);
-		int size = buffer.capacity();
-		long nonce = buffer.getLong();
-		byte[] encrypted = new byte[size - 8];
-		buffer.get(encrypted);
-		byte[] iv = new byte[16];
-		new Random(nonce).nextBytes(iv);
-		return new Tuple<>(new IvParameterSpec(iv), encrypted);
+	protected AlgorithmParameterSpec readIV(byte[] payload, int offset) throws UnsupportedOperationException {
+		long nonce = 0;
+
+		for (int i = 0; i < 8; i++) {
+			nonce = (nonce << 8) | (payload[offset + i] & 0xFF);
+		}
+
+		// Reseeding gives the same sequence as a fresh Random would, without allocating one
+		IVScratch scratch = IV_SCRATCH.get();
+		scratch.random.setSeed(nonce);
+		scratch.random.nextBytes(scratch.iv);
+		return new IvParameterSpec(scratch.iv);
+	}
+
+	private static class IVScratch {
+		private final Random random = new Random();
+		private final byte[] iv = new byte[16];
 	}
 
 }
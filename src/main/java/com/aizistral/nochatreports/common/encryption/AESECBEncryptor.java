@@ -23,7 +23,7 @@ public class AESECBEncryptor extends AESEncryptor<AESECBEncryption> {
 	}
 
 	@Override
-	protected Tuple<AlgorithmParameterSpec, byte[]> splitIV(byte[] message) throws UnsupportedOperationException {
+	protected AlgorithmParameterSpec readIV(byte[] payload, int offset) throws UnsupportedOperationException {
 		throw new UnsupportedOperationException();
 	}
 
@@ -17,18 +17,19 @@ import net.minecraft.util.StringUtil;
 public abstract class AESEncryption extends Encryption {
 	private final String mode, padding;
 	private final boolean requiresIV;
-	private final String encapsulation;
+	private final Encapsulation encapsulation;
 
-	protected AESEncryption(String mode, String padding, boolean requiresIV, String encapsulation) {
-		super("aes_" + mode.toLowerCase() + "_" + encapsulation.toLowerCase(), "AES/" + mode + "+" + encapsulation);
+	protected AESEncryption(String mode, String padding, boolean requiresIV, Encapsulation encapsulation) {
+		super("aes_" + mode.toLowerCase() + "_" + encapsulation.getName().toLowerCase(), "AES/" + mode + "+"
+				+ encapsulation.getName());
 		this.mode = mode;
 		this.padding = padding;
 		this.requiresIV = requiresIV;
 		this.encapsulation = encapsulation;
 	}
 
-	public String getEncapsulation() {
-		return encapsulation;
+	public Encapsulation getEncapsulation() {
+		return this.encapsulation;
 	}
 
 	@Override
@@ -3,13 +3,19 @@ package com.aizistral.nochatreports.common.encryption;
 import static javax.crypto.Cipher.DECRYPT_MODE;
 import static javax.crypto.Cipher.ENCRYPT_MODE;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
@@ -17,21 +23,28 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
+import com.aizistral.nochatreports.common.compression.ByteSink;
 import com.aizistral.nochatreports.common.compression.Compression;
 import com.aizistral.nochatreports.common.config.NCRConfigEncryption;
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
 import net.minecraft.util.Tuple;
 
 public abstract class AESEncryptor<T extends AESEncryption> extends Encryptor<T> {
+	// Fingerprinted payloads are told apart by Encapsulation.KEY_FINGERPRINT_MARKER after their text,
+	// never by their bytes, which in payloads without fingerprint are random IV or ciphertext
+	public static final int KEY_FINGERPRINT_HEADER_LENGTH = 1;
+	private static final int AES_BLOCK_SIZE = 16;
+	private static final ThreadLocal<EncryptionBuffers> BUFFERS = ThreadLocal.withInitial(EncryptionBuffers::new);
 	private final T encryption;
 	private final SecretKey key;
-	private final Cipher encryptor, decryptor;
+	private final String transformation;
+	private final ThreadLocal<Cipher> encryptor, decryptor;
 	private final boolean useIV;
-	private String decryptLastUsedEncapsulation = null;
-	private Compression decryptLastUsedCompression = null;
-	private Float decryptLastUsedCompressionRatio = null;
-
+	private final byte keyFingerprint;
+	private final int ivLength;
 
 	protected AESEncryptor(String key, T encryption) throws InvalidKeyException {
 		this(new SecretKeySpec(decodeBinaryKey(key), "AES"), encryption);
@@ -40,28 +53,32 @@ public abstract class AESEncryptor<T extends AESEncryption> extends Encryptor<T>
 	protected AESEncryptor(SecretKey key, T encryption) throws InvalidKeyException {
 		this.encryption = encryption;
 		this.useIV = encryption.requiresIV();
-		String mode = encryption.getMode();
-		String padding = encryption.getPadding();
+		this.transformation = key.getAlgorithm() + "/" + encryption.getMode() + "/" + encryption.getPadding();
+		this.key = key;
+		this.keyFingerprint = computeKeyFingerprint(key);
+		this.ivLength = this.useIV ? this.generateIV().getB().length : 0;
+
+		// Ciphers are stateful and not thread-safe, so every thread gets its own pair. The pair for the
+		// constructing thread is created eagerly, which also validates the key.
+		Cipher encryptor = this.createCipher(ENCRYPT_MODE);
+		Cipher decryptor = this.createCipher(DECRYPT_MODE);
+		this.encryptor = ThreadLocal.withInitial(() -> this.createCipherUnchecked(ENCRYPT_MODE));
+		this.decryptor = ThreadLocal.withInitial(() -> this.createCipherUnchecked(DECRYPT_MODE));
+		this.encryptor.set(encryptor);
+		this.decryptor.set(decryptor);
+	}
 
+	private Cipher createCipher(int mode) throws InvalidKeyException {
 		try {
-			this.key = key;
+			Cipher cipher = Cipher.getInstance(this.transformation);
 
-			Cipher encryptor = Cipher.getInstance(this.key.getAlgorithm() + "/" + mode + "/" + padding);
 			if (this.useIV) {
-				encryptor.init(ENCRYPT_MODE, this.key, this.generateIV().getA());
+				cipher.init(mode, this.key, this.generateIV().getA());
 			} else {
-				encryptor.init(ENCRYPT_MODE, this.key);
-
+				cipher.init(mode, this.key);
 			}
-			this.encryptor = encryptor;
 
-			Cipher decryptor = Cipher.getInstance(this.key.getAlgorithm() + "/" + mode + "/" + padding);
-			if (this.useIV) {
-				decryptor.init(DECRYPT_MODE, this.key, this.generateIV().getA());
-			} else {
-				decryptor.init(DECRYPT_MODE, this.key);
-			}
-			this.decryptor = decryptor;
+			return cipher;
 		} catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
 			throw new RuntimeException(ex);
 		} catch (InvalidAlgorithmParameterException ex) {
@@ -69,189 +86,409 @@ public abstract class AESEncryptor<T extends AESEncryption> extends Encryptor<T>
 		}
 	}
 
+	private Cipher createCipherUnchecked(int mode) {
+		try {
+			return this.createCipher(mode);
+		} catch (InvalidKeyException ex) {
+			throw new RuntimeException(ex); // shouldn't happen, key was already accepted by constructor
+		}
+	}
+
+	private static byte computeKeyFingerprint(SecretKey key) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(key.getEncoded())[0];
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	public String encryptAndCompress(String plaintextPrefix, String secretMessage, NCRConfigEncryption.CompressionPolicy policy, Compression specificCompression) {
-		if(!secretMessage.startsWith("#%")) secretMessage = "#%" + secretMessage;
+		return this.encryptAndCompress(plaintextPrefix, secretMessage, policy, specificCompression, false);
+	}
+
+	/**
+	 * @param keyFingerprint Whether to prepend fingerprint of the key to the payload and mark it
+	 * with {@link Encapsulation#KEY_FINGERPRINT_MARKER}, allowing receivers to pick the right key
+	 * without trying all of them. Versions of the mod that don't know about fingerprints won't be
+	 * able to decrypt such messages.
+	 */
+
+	public String encryptAndCompress(String plaintextPrefix, String secretMessage, NCRConfigEncryption.CompressionPolicy policy, Compression specificCompression, boolean keyFingerprint) {
+		EncryptionBuffers buffers = BUFFERS.get();
+		ByteBuffer payload = this.encryptAndCompress(buffers, secretMessage, policy, specificCompression, keyFingerprint,
+				plaintextPrefix.length());
+		return this.encapsulate(buffers, plaintextPrefix, payload, keyFingerprint);
+	}
+
+	/**
+	 * Compresses and encrypts the message according to given policy, but doesn't encapsulate it.
+	 *
+	 * @param prefixLength Length of unencrypted prefix the payload will be sent with, which
+	 * {@link NCRConfigEncryption.CompressionPolicy#WhenNecessary} accounts for.
+	 */
+
+	public byte[] encryptAndCompressPayload(String secretMessage, NCRConfigEncryption.CompressionPolicy policy, Compression specificCompression, boolean keyFingerprint, int prefixLength) {
+		ByteBuffer payload = this.encryptAndCompress(BUFFERS.get(), secretMessage, policy, specificCompression, keyFingerprint, prefixLength);
+		return Arrays.copyOfRange(payload.array(), payload.position(), payload.limit());
+	}
+
+	/**
+	 * Runs the message through framing, compression and encryption stages, all of which write
+	 * into buffers of the calling thread. Plaintext is encoded to UTF-8 only once and shared
+	 * by both uncompressed and compressed attempts.
+	 *
+	 * @return Buffer with encrypted payload between its position and limit, valid until the
+	 * next call on the same thread.
+	 */
+
+	private ByteBuffer encryptAndCompress(EncryptionBuffers buffers, String secretMessage, NCRConfigEncryption.CompressionPolicy policy, Compression specificCompression, boolean keyFingerprint, int prefixLength) {
+		ByteBuffer plain = buffers.encodePlain(secretMessage, secretMessage.startsWith("#%") ? 2 : 0);
+
+		if (policy == NCRConfigEncryption.CompressionPolicy.Never)
+			return this.encryptPayload(plain, buffers.normal, keyFingerprint);
+
+		ByteBuffer normal = null;
+
+		if (policy != NCRConfigEncryption.CompressionPolicy.Always) {
+			normal = this.encryptPayload(plain.duplicate(), buffers.normal, keyFingerprint);
+
+			// Don't compress if message would fit in single packet anyway
+			if (policy == NCRConfigEncryption.CompressionPolicy.WhenNecessary
+					&& prefixLength + this.getEncapsulatedLength(normal.remaining(), keyFingerprint) < 256)
+				return normal;
+		}
+
 		try {
-			if(policy == NCRConfigEncryption.CompressionPolicy.Never) {
-				return plaintextPrefix + encrypt(secretMessage);
-			} else if (policy == NCRConfigEncryption.CompressionPolicy.Always) {
-				if (secretMessage.startsWith("#%")) secretMessage = secretMessage.substring(2);
-				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-				compressed.write("#?".getBytes());
-				if (specificCompression == null)
-					compressed.write(Compression.compressWithBest(toBytes(secretMessage)));
-				else
-					compressed.write(specificCompression.compress(toBytes(secretMessage)));
-				return plaintextPrefix + encapsulate(internalRawEncrypt(compressed.toByteArray()));
-			}else if(policy == NCRConfigEncryption.CompressionPolicy.Preferred) {
-				String compSecretMessage = secretMessage;
-				if (compSecretMessage.startsWith("#%")) compSecretMessage = compSecretMessage.substring(2);
-				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-				compressed.write("#?".getBytes());
-				if (specificCompression == null)
-					compressed.write(Compression.compressWithBest(toBytes(compSecretMessage)));
-				else
-					compressed.write(specificCompression.compress(toBytes(compSecretMessage)));
-				String finalCompressedText = plaintextPrefix + encapsulate(internalRawEncrypt(compressed.toByteArray()));
-				String finalNormalText = plaintextPrefix + encapsulate(internalRawEncrypt(toBytes(secretMessage)));
-				if(finalNormalText.length() <= finalCompressedText.length())
-					return finalNormalText;
-				else
-					return finalCompressedText;
-			} else if(policy == NCRConfigEncryption.CompressionPolicy.WhenNecessary) {
-				String finalNonCompressedText = plaintextPrefix + encrypt(secretMessage);
-				// Switch to "Preferred" if message wouldn't fit in single packet. Otherwise do not compress.
-				if (finalNonCompressedText.length() >= 256) {
-					return encryptAndCompress(plaintextPrefix, secretMessage, NCRConfigEncryption.CompressionPolicy.Preferred, specificCompression);
-				}else {
-					return finalNonCompressedText;
-				}
-			}else {
+			byte[] body = Arrays.copyOfRange(plain.array(), 2, plain.limit());
+			byte[] compressedBody = specificCompression == null ? Compression.compressWithBest(body) : specificCompression.compress(body);
+
+			// No compression finished within latency budget, plaintext buffer is still intact
+			if (compressedBody == null)
+				return normal != null ? normal : this.encryptPayload(plain, buffers.normal, keyFingerprint);
+
+			ByteBuffer compressed = this.encryptPayload(buffers.frameCompressed(compressedBody), buffers.compressed, keyFingerprint);
+
+			if (normal == null)
+				return compressed;
+			else if (policy == NCRConfigEncryption.CompressionPolicy.Preferred || policy == NCRConfigEncryption.CompressionPolicy.WhenNecessary)
+				return normal.remaining() <= compressed.remaining() ? normal : compressed;
+			else
 				throw new RuntimeException("Unsupported Compression Policy: " + policy);
-			}
-		}catch (IOException ex) {
+		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
-	private byte[] internalRawEncrypt(byte[] message) {
+	/**
+	 * Encrypts the plaintext into given output buffer, writing fingerprint header and IV in
+	 * front of the ciphertext in place.
+	 */
+
+	private ByteBuffer encryptPayload(ByteBuffer plain, OutputBuffer output, boolean keyFingerprint) {
 		try {
+			Cipher encryptor = this.encryptor.get();
+			byte[] iv = null;
+
 			if (this.useIV) {
 				var tuple = this.generateIV();
+				encryptor.init(ENCRYPT_MODE, this.key, tuple.getA());
+				iv = tuple.getB();
+			}
 
-				this.encryptor.init(ENCRYPT_MODE, this.key, tuple.getA());
-				byte[] encrypted = this.encryptor.doFinal(message);
-				return ByteBuffer.allocate(encrypted.length + tuple.getB().length).put(tuple.getB())
-						.put(encrypted).array();
-			} else {
-				return this.encryptor.doFinal(message);
+			ByteBuffer buffer = output.get((keyFingerprint ? KEY_FINGERPRINT_HEADER_LENGTH : 0) + (iv != null ? iv.length : 0)
+					+ encryptor.getOutputSize(plain.remaining()));
+
+			if (keyFingerprint) {
+				buffer.put(this.keyFingerprint);
 			}
-		} catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
+
+			if (iv != null) {
+				buffer.put(iv);
+			}
+
+			encryptor.doFinal(plain, buffer);
+			return buffer.flip();
+		} catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
-	public String encapsulate(byte[] data) {
-		if (this.encryption.getEncapsulation().equalsIgnoreCase("Base64")) {
-			return encodeBase64(data);
-		} else if (this.encryption.getEncapsulation().equalsIgnoreCase("Base64R")) {
-			return encodeBase64R(data);
-		} else if (this.encryption.getEncapsulation().equalsIgnoreCase("Sus16")) {
-			return encodeSus16(data);
-		} else if (this.encryption.getEncapsulation().equalsIgnoreCase("MC256")) {
-			return encodeMC256(data);
-		} else if (this.encryption.getEncapsulation().equalsIgnoreCase("Invis2")) {
-			return encodeInvis2(data);
-		} else {
-			throw new RuntimeException("Unknown Encapsulation: " + this.encryption.getEncapsulation());
+	private String encapsulate(EncryptionBuffers buffers, String prefix, ByteBuffer payload, boolean keyFingerprint) {
+		StringBuilder builder = buffers.text();
+		builder.append(prefix);
+		this.encryption.getEncapsulation().encode(payload.array(), payload.position(), payload.remaining(), builder);
+
+		if (keyFingerprint) {
+			builder.append(Encapsulation.KEY_FINGERPRINT_MARKER);
 		}
+
+		return builder.toString();
 	}
-	@Override
-	public String encrypt(String message) {
-		return encapsulate(internalRawEncrypt(toBytes(message)));
+
+	/**
+	 * @return Whether encapsulated message is marked as starting with key fingerprint.
+	 */
+
+	public static boolean hasKeyFingerprintMarker(CharSequence message) {
+		return !message.isEmpty() && message.charAt(message.length() - 1) == Encapsulation.KEY_FINGERPRINT_MARKER;
 	}
 
-	private boolean isPlaintextOrCompressed(byte[] message) {
-		return message != null && message.length >= 2 &&  message[0] == (byte) '#' &&
-				(message[1] == (byte) '%' || message[1] == (byte) '?');
+	/**
+	 * @return Encapsulated message without {@link Encapsulation#KEY_FINGERPRINT_MARKER}, the
+	 * same message if it isn't marked.
+	 */
+
+	public static String stripKeyFingerprintMarker(String message) {
+		return hasKeyFingerprintMarker(message) ? message.substring(0, message.length() - 1) : message;
 	}
 
-	private boolean isCompressed(byte[] message) {
-		return message != null && message.length >= 2 && message[0] == (byte) '#' && message[1] == (byte) '?';
+	/**
+	 * Checks everything about the payload that can be told without decrypting it, so that
+	 * messages which can't be ours are turned down before the cipher gets to throw on them.
+	 *
+	 * @param offset Start of IV and ciphertext, past the fingerprint header if there is one.
+	 */
+
+	private DecryptionResult.Status checkPayload(byte[] payload, int offset, int length) {
+		if (offset > 0 && length >= offset && payload[0] != this.keyFingerprint)
+			return DecryptionResult.Status.WRONG_KEY;
+		else if (length - offset < this.getMinPayloadLength())
+			return DecryptionResult.Status.TRUNCATED;
+		else if (!"NoPadding".equals(this.encryption.getPadding()) && (length - offset - this.ivLength) % AES_BLOCK_SIZE != 0)
+			return DecryptionResult.Status.TRUNCATED;
+		else
+			return DecryptionResult.Status.SUCCESS;
 	}
 
-	@Override
-	public String decrypt(String message) {
-		decryptLastUsedEncapsulation = null;
-		decryptLastUsedCompression = null;
-		decryptLastUsedCompressionRatio = null;
-		byte[] candidate = null;
-		RuntimeException firstEx = null;
-		// Attempt Base64R first
-		try {
-			candidate = internalRawDecrypt(decodeBase64RBytes(message));
-			decryptLastUsedEncapsulation = "Base64R";
-		} catch (RuntimeException ex) {
-			if(firstEx == null) firstEx = ex;
-		}
-		// If failed, attempt Base64 (old version)
-		if (!isPlaintextOrCompressed(candidate)) {
-			try {
-				candidate = internalRawDecrypt(decodeBase64NonRBytes(message));
-				decryptLastUsedEncapsulation = "Base64";
-			} catch (RuntimeException ex) {
-				if(firstEx == null) firstEx = ex;
+	/**
+	 * Reads key fingerprint from encapsulated message without decrypting it.
+	 *
+	 * @return Fingerprint in range 0-255, or -1 if message doesn't carry one.
+	 */
+
+	public static int readKeyFingerprint(String message) {
+		if (!hasKeyFingerprintMarker(message))
+			return -1;
+
+		String encoded = stripKeyFingerprintMarker(message);
+		int encapsulations = Encapsulation.classify(encoded);
+
+		for (Encapsulation encapsulation : Encapsulation.getRegistered()) {
+			if ((encapsulations & encapsulation.getFlag()) == 0) {
+				continue;
 			}
+
+			byte[] payload = encapsulation.decode(encoded);
+
+			if (payload != null && payload.length > KEY_FINGERPRINT_HEADER_LENGTH)
+				return payload[0] & 0xFF;
 		}
-		// If also failed, attempt Sus16
-		if (!isPlaintextOrCompressed(candidate)) {
-			try {
-				candidate = internalRawDecrypt(decodeSus16Bytes(message));
-				decryptLastUsedEncapsulation = "Sus16";
-			} catch (RuntimeException ex) {
-				if(firstEx == null) firstEx = ex;
+
+		return -1;
+	}
+
+	/**
+	 * Reads chunk of a message split across several packets, without decrypting it. Chunks of
+	 * fingerprinted payloads carry {@link Encapsulation#KEY_FINGERPRINT_MARKER} as well.
+	 *
+	 * @return Chunk, or null if message isn't one.
+	 */
+
+	public static @Nullable MessageChunk readChunk(String message) {
+		message = stripKeyFingerprintMarker(message);
+		int encapsulations = Encapsulation.classify(message);
+
+		for (Encapsulation encapsulation : Encapsulation.getRegistered()) {
+			if ((encapsulations & encapsulation.getFlag()) == 0) {
+				continue;
 			}
+
+			byte[] payload = encapsulation.decode(message);
+			MessageChunk chunk = payload != null ? MessageChunk.fromPayload(payload, encapsulation) : null;
+
+			if (chunk != null)
+				return chunk;
 		}
-		// next MC256
-		if (!isPlaintextOrCompressed(candidate)) {
-			try {
-				candidate = internalRawDecrypt(decodeMC256(message));
-				decryptLastUsedEncapsulation = "MC256";
-			} catch (RuntimeException ex) {
-				if(firstEx == null) firstEx = ex;
-			}
+
+		return null;
+	}
+
+	/**
+	 * @return Fingerprint of this encryptor's key in range 0-255, as written into the
+	 * payload by {@link #encryptAndCompress(String, String, NCRConfigEncryption.CompressionPolicy, Compression, boolean)}.
+	 */
+
+	public int getKeyFingerprint() {
+		return this.keyFingerprint & 0xFF;
+	}
+
+	/**
+	 * @param keyFingerprint Whether data starts with key fingerprint, or is a chunk of such data,
+	 * and so has to be marked with {@link Encapsulation#KEY_FINGERPRINT_MARKER}.
+	 */
+
+	public String encapsulate(byte[] data, boolean keyFingerprint) {
+		String encoded = this.encryption.getEncapsulation().encode(data);
+		return keyFingerprint ? encoded + Encapsulation.KEY_FINGERPRINT_MARKER : encoded;
+	}
+
+	/**
+	 * @return Length of the string {@link #encapsulate(byte[], boolean)} produces for given number
+	 * of bytes.
+	 */
+
+	public int getEncapsulatedLength(int length, boolean keyFingerprint) {
+		return this.encryption.getEncapsulation().getEncodedLength(length) + (keyFingerprint ? 1 : 0);
+	}
+
+	/**
+	 * @return Length in bytes of the shortest payload this encryptor can produce, one that holds
+	 * nothing but framing, without key fingerprint.
+	 */
+
+	public int getMinPayloadLength() {
+		return this.ivLength + this.encryptor.get().getOutputSize(2);
+	}
+
+	/**
+	 * @param length Length of uncompressed plaintext payload in bytes, including framing.
+	 * @return Length of encapsulated ciphertext that would be produced for it, not accounting
+	 * for compression.
+	 */
+
+	public int predictEncryptedLength(int length, boolean keyFingerprint) {
+		int raw = this.ivLength + this.encryptor.get().getOutputSize(length);
+
+		if (keyFingerprint) {
+			raw += KEY_FINGERPRINT_HEADER_LENGTH;
 		}
-		// next Invis2
-		if (!isPlaintextOrCompressed(candidate)) {
-			try {
-				candidate = internalRawDecrypt(decodeInvis2(message));
-				decryptLastUsedEncapsulation = "Invis2";
-			} catch (RuntimeException ex) {
-				if(firstEx == null) firstEx = ex;
+
+		return this.getEncapsulatedLength(raw, keyFingerprint);
+	}
+
+	@Override
+	public String encrypt(String message) {
+		EncryptionBuffers buffers = BUFFERS.get();
+		return this.encapsulate(buffers, "", this.encryptPayload(buffers.encode(message), buffers.normal, false), false);
+	}
+
+	private boolean isPlaintextOrCompressed(byte[] message, int length) {
+		return length >= 2 &&  message[0] == (byte) '#' && (message[1] == (byte) '%' || message[1] == (byte) '?');
+	}
+
+	private boolean isCompressed(byte[] message, int length) {
+		return length >= 2 && message[0] == (byte) '#' && message[1] == (byte) '?';
+	}
+
+	@Override
+	public String decrypt(String message) {
+		DecryptionResult result = this.tryDecrypt(message);
+
+		if (!result.isSuccess())
+			throw new IllegalArgumentException("Message could not be decrypted: " + result.status());
+
+		return "#%" + result.text();
+	}
+
+	@Override
+	public DecryptionResult tryDecrypt(String message) {
+		// Fingerprinted payload is only ever read as such, so one with foreign key is turned down
+		// before the cipher is touched
+		boolean keyFingerprint = hasKeyFingerprintMarker(message);
+		CharSequence encoded = keyFingerprint ? CharBuffer.wrap(message, 0, message.length() - 1) : message;
+		int encapsulations = Encapsulation.classify(encoded);
+
+		if (encapsulations == 0)
+			return DecryptionResult.NOT_ENCAPSULATED;
+
+		EncryptionBuffers buffers = BUFFERS.get();
+		DecryptionResult.Status furthest = DecryptionResult.Status.NOT_ENCAPSULATED;
+
+		// Only attempt encapsulations whose alphabet fits the message, in order of registration
+		for (Encapsulation encapsulation : Encapsulation.getRegistered()) {
+			if ((encapsulations & encapsulation.getFlag()) == 0) {
+				continue;
 			}
-		}
-		if(candidate == null && firstEx != null) {
-			throw firstEx;
-		}
 
-		// Decompress
-		if(isCompressed(candidate)) {
-			byte[] compressedData = new byte[candidate.length - 2];
-			for(int i = 2; i < candidate.length; i++)
-				compressedData[i-2] = candidate[i];
-
-			try {
-				Compression compression = Compression.findCompression(compressedData);
-				if (compression == null) {
-					return "#%<UNKNOWN COMPRESSION>";
-				}
-				byte[] decompressed = compression.decompress(compressedData);
-				String decompressedString = fromBytes(decompressed);
-				decryptLastUsedCompressionRatio = ((float) decompressed.length) / ((float) compressedData.length);
-				decryptLastUsedCompression = compression;
-				return "#%" + decompressedString;
-			}catch (IOException ex) {
-				throw new RuntimeException(ex);
+			byte[] payload = buffers.payload(encapsulation.getMaxDecodedLength(encoded.length()));
+			int length = encapsulation.decode(encoded, payload, 0);
+
+			if (length < 0) {
+				continue;
+			}
+
+			DecryptionResult.Status status = this.decryptPayload(buffers, payload,
+					keyFingerprint ? KEY_FINGERPRINT_HEADER_LENGTH : 0, length);
+
+			if (status == DecryptionResult.Status.SUCCESS)
+				return this.unframe(buffers.decrypted, buffers.decryptedLength, encapsulation);
+			else if (status.compareTo(furthest) > 0) {
+				furthest = status;
 			}
-		}else {
-			return fromBytes(candidate);
 		}
+
+		return DecryptionResult.failure(furthest);
 	}
 
-	public byte[] internalRawDecrypt(byte[] message) {
+	/**
+	 * Validates and decrypts the payload into {@link EncryptionBuffers#decrypted}. Nothing is
+	 * allocated on this side of the cipher, whether decryption succeeds or not.
+	 *
+	 * @param offset Start of IV and ciphertext, past the fingerprint header if there is one.
+	 */
+
+	private DecryptionResult.Status decryptPayload(EncryptionBuffers buffers, byte[] payload, int offset, int length) {
+		DecryptionResult.Status status = this.checkPayload(payload, offset, length);
+
+		if (status != DecryptionResult.Status.SUCCESS)
+			return status;
+
 		try {
+			Cipher decryptor = this.decryptor.get();
+			int ciphertext = offset + this.ivLength;
+
 			if (this.useIV) {
-				var tuple = this.splitIV(message);
+				decryptor.init(DECRYPT_MODE, this.key, this.readIV(payload, offset));
+			}
 
-				this.decryptor.init(DECRYPT_MODE, this.key, tuple.getA());
-				return this.decryptor.doFinal(tuple.getB());
-			} else
-				return this.decryptor.doFinal(message);
+			byte[] output = buffers.decrypted(decryptor.getOutputSize(length - ciphertext));
+			buffers.decryptedLength = decryptor.doFinal(payload, ciphertext, length - ciphertext, output, 0);
 		} catch (AEADBadTagException ex) {
-			return "???".getBytes();
-		} catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
-			throw new RuntimeException(ex);
+			return DecryptionResult.Status.AUTHENTICATION_FAILED;
+		} catch (GeneralSecurityException ex) {
+			return DecryptionResult.Status.MALFORMED;
+		}
+
+		return isPlaintextOrCompressed(buffers.decrypted, buffers.decryptedLength) ? DecryptionResult.Status.SUCCESS
+				: DecryptionResult.Status.MALFORMED;
+	}
+
+	/**
+	 * Strips framing from decrypted plaintext, decompressing it straight from the decrypted
+	 * buffer if it was compressed.
+	 */
+
+	private DecryptionResult unframe(byte[] candidate, int candidateLength, Encapsulation encapsulation) {
+		int offset = 2, length = candidateLength - 2;
+
+		if (!isCompressed(candidate, candidateLength))
+			return DecryptionResult.success(fromBytes(candidate, offset, length), encapsulation.getName(), null, null);
+
+		Compression compression = Compression.findCompression(candidate, offset, length);
+
+		if (compression == null)
+			return DecryptionResult.success("<UNKNOWN COMPRESSION>", encapsulation.getName(), null, null);
+
+		ByteSink decompressed = BUFFERS.get().decompressed.reset();
+
+		try {
+			compression.decompress(candidate, offset, length, decompressed);
+		} catch (IOException ex) {
+			return DecryptionResult.DECOMPRESSION_FAILED;
 		}
+
+		return DecryptionResult.success(fromBytes(decompressed.array(), 0, decompressed.size()), encapsulation.getName(),
+				compression, ((float) decompressed.size()) / ((float) length));
 	}
 
 	@Override
@@ -266,18 +503,101 @@ public abstract class AESEncryptor<T extends AESEncryption> extends Encryptor<T>
 
 	protected abstract Tuple<AlgorithmParameterSpec, byte[]> generateIV() throws UnsupportedOperationException;
 
-	protected abstract Tuple<AlgorithmParameterSpec, byte[]> splitIV(byte[] message) throws UnsupportedOperationException;
+	/**
+	 * @return Parameters for decrypting the ciphertext whose IV starts at given offset of the
+	 * payload. The payload itself is not copied.
+	 */
 
-	public String getDecryptLastUsedEncapsulation() {
-		return decryptLastUsedEncapsulation;
-	}
+	protected abstract AlgorithmParameterSpec readIV(byte[] payload, int offset) throws UnsupportedOperationException;
+
+	/**
+	 * Scratch space for encryption, reused by all encryptors on the same thread. Buffers only
+	 * grow, up to the size of the largest message this thread has encrypted. Decompression output
+	 * is bounded instead, so that no message can make it grow past the limit.
+	 */
+
+	private static class EncryptionBuffers {
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final OutputBuffer plain = new OutputBuffer(), normal = new OutputBuffer(), compressed = new OutputBuffer();
+		private final StringBuilder text = new StringBuilder(256);
+		private final ByteSink decompressed = new ByteSink(256, Compression.MAX_DECOMPRESSION_SIZE);
+		private byte[] payload = new byte[256], decrypted = new byte[256];
+		private int decryptedLength;
+
+		private ByteBuffer encode(String message) {
+			return this.encode(this.plain.get((int) (message.length() * this.encoder.maxBytesPerChar())), message, 0).flip();
+		}
+
+		/**
+		 * @return Plaintext framed with "#%", in read mode.
+		 */
+
+		private ByteBuffer encodePlain(String message, int offset) {
+			ByteBuffer buffer = this.plain.get(2 + (int) ((message.length() - offset) * this.encoder.maxBytesPerChar()));
+			buffer.put((byte) '#').put((byte) '%');
+			return this.encode(buffer, message, offset).flip();
+		}
+
+		/**
+		 * @return Compressed plaintext framed with "#?", in read mode.
+		 */
 
-	public Compression getDecryptLastUsedCompression() {
-		return decryptLastUsedCompression;
+		private ByteBuffer frameCompressed(byte[] compressed) {
+			return this.plain.get(2 + compressed.length).put((byte) '#').put((byte) '?').put(compressed).flip();
+		}
+
+		/**
+		 * @return Array to decode payload into, reallocated if it can't hold given number of bytes.
+		 */
+
+		private byte[] payload(int capacity) {
+			if (this.payload.length < capacity) {
+				this.payload = new byte[Math.max(capacity, this.payload.length * 2)];
+			}
+
+			return this.payload;
+		}
+
+		/**
+		 * @return Array to decrypt payload into, reallocated if it can't hold given number of bytes.
+		 */
+
+		private byte[] decrypted(int capacity) {
+			if (this.decrypted.length < capacity) {
+				this.decrypted = new byte[Math.max(capacity, this.decrypted.length * 2)];
+			}
+
+			return this.decrypted;
+		}
+
+		private StringBuilder text() {
+			this.text.setLength(0);
+			return this.text;
+		}
+
+		private ByteBuffer encode(ByteBuffer buffer, String message, int offset) {
+			this.encoder.reset();
+			this.encoder.encode(CharBuffer.wrap(message, offset, message.length()), buffer, true);
+			this.encoder.flush(buffer);
+			return buffer;
+		}
 	}
 
-	public Float getDecryptLastUsedCompressionRatio() {
-		return decryptLastUsedCompressionRatio;
+	private static class OutputBuffer {
+		private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		/**
+		 * @return This buffer cleared for writing, reallocated if it can't hold given number of bytes.
+		 */
+
+		private ByteBuffer get(int capacity) {
+			if (this.buffer.capacity() < capacity) {
+				this.buffer = ByteBuffer.allocate(Math.max(capacity, this.buffer.capacity() * 2));
+			}
+
+			return this.buffer.clear();
+		}
 	}
 
 }
@@ -1,6 +1,5 @@
 package com.aizistral.nochatreports.common.encryption;
 
-import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.spec.AlgorithmParameterSpec;
 
@@ -27,11 +26,8 @@ public class AESGCMEncryptor extends AESEncryptor<AESGCMEncryption> {
 	}
 
 	@Override
-	protected Tuple<AlgorithmParameterSpec, byte[]> splitIV(byte[] message) throws UnsupportedOperationException {
-		byte[] iv = new byte[12];
-		byte[] msg = new byte[message.length - 12];
-		ByteBuffer.wrap(message).get(iv).get(msg);
-		return new Tuple<>(new GCMParameterSpec(96, iv), msg);
+	protected AlgorithmParameterSpec readIV(byte[] payload, int offset) throws UnsupportedOperationException {
+		return new GCMParameterSpec(96, payload, offset, 12);
 	}
 
 }
@@ -0,0 +1,224 @@
+package com.aizistral.nochatreports.common.encryption;
+
+import java.util.Arrays;
+
+/**
+ * Encapsulation that packs bits of payload into characters of alphabet with 2^n symbols,
+ * most significant bit first. Covers both Base64 and Base16 families, as well as
+ * encodings with one symbol per byte or per bit. Decoding goes through a direct-indexed
+ * reverse table, split into 256-character pages so that unused ranges of the character
+ * space don't take any memory.
+ */
+
+public class BitEncapsulation extends Encapsulation {
+	private static final short[] EMPTY_PAGE = createEmptyPage();
+	private final int bitsPerChar, charsPerBlock;
+	private final char[] alphabet;
+	private final char padding;
+	private final boolean skipUnknown;
+	private final short[][] reverse;
+	private final String fullAlphabet;
+
+	/**
+	 * @param bitsPerChar Number of bits each character carries, alphabet must have exactly
+	 * 2^bitsPerChar characters.
+	 * @param padding Character that pads output to whole blocks, or 0 if output isn't padded.
+	 * @param aliases Characters that are accepted when decoding in place of those in the
+	 * same position of aliased.
+	 * @param skipUnknown Whether decoder should ignore characters outside of the alphabet.
+	 */
+
+	protected BitEncapsulation(String name, int bitsPerChar, String alphabet, char padding, String aliases,
+			String aliased, boolean skipUnknown) {
+		super(name);
+
+		if (bitsPerChar < 1 || bitsPerChar > 8 || alphabet.length() != 1 << bitsPerChar)
+			throw new IllegalArgumentException("Alphabet of " + name + " must have 2^" + bitsPerChar + " characters!");
+		else if (aliases.length() != aliased.length())
+			throw new IllegalArgumentException("Aliases of " + name + " don't match aliased characters!");
+
+		this.bitsPerChar = bitsPerChar;
+		this.charsPerBlock = lcm(8, bitsPerChar) / bitsPerChar;
+		this.alphabet = alphabet.toCharArray();
+		this.padding = padding;
+		this.skipUnknown = skipUnknown;
+		this.reverse = new short[256][];
+		Arrays.fill(this.reverse, EMPTY_PAGE);
+
+		for (int i = 0; i < this.alphabet.length; i++) {
+			if (this.lookup(this.alphabet[i]) >= 0)
+				throw new IllegalArgumentException("Duplicate character in alphabet of " + name + ": " + this.alphabet[i]);
+
+			this.put(this.alphabet[i], i);
+		}
+
+		for (int i = 0; i < aliases.length(); i++) {
+			this.put(aliases.charAt(i), this.lookup(aliased.charAt(i)));
+		}
+
+		this.fullAlphabet = alphabet + (padding != 0 ? String.valueOf(padding) : "") + aliases;
+	}
+
+	@Override
+	public String getAlphabet() {
+		return this.fullAlphabet;
+	}
+
+	@Override
+	public boolean skipsUnknownCharacters() {
+		return this.skipUnknown;
+	}
+
+	@Override
+	public int getEncodedLength(int bytes) {
+		int chars = (bytes * 8 + this.bitsPerChar - 1) / this.bitsPerChar;
+
+		if (this.padding != 0) {
+			chars = (chars + this.charsPerBlock - 1) / this.charsPerBlock * this.charsPerBlock;
+		}
+
+		return chars;
+	}
+
+	@Override
+	public int getMaxDecodedLength(int chars) {
+		return (int) ((long) chars * this.bitsPerChar / 8);
+	}
+
+	@Override
+	public int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+		int mask = (1 << this.bitsPerChar) - 1;
+		int buffer = 0, bits = 0, pos = dstOffset;
+
+		for (int i = offset; i < offset + length; i++) {
+			buffer = buffer << 8 | src[i] & 0xFF;
+			bits += 8;
+
+			while (bits >= this.bitsPerChar) {
+				bits -= this.bitsPerChar;
+				dst[pos++] = this.alphabet[buffer >>> bits & mask];
+			}
+
+			buffer &= (1 << bits) - 1;
+		}
+
+		if (bits > 0) {
+			dst[pos++] = this.alphabet[buffer << this.bitsPerChar - bits & mask];
+		}
+
+		if (this.padding != 0) {
+			while ((pos - dstOffset) % this.charsPerBlock != 0) {
+				dst[pos++] = this.padding;
+			}
+		}
+
+		return pos - dstOffset;
+	}
+
+	@Override
+	public void encode(byte[] src, int offset, int length, StringBuilder dst) {
+		int mask = (1 << this.bitsPerChar) - 1;
+		int buffer = 0, bits = 0, start = dst.length();
+		dst.ensureCapacity(start + this.getEncodedLength(length));
+
+		for (int i = offset; i < offset + length; i++) {
+			buffer = buffer << 8 | src[i] & 0xFF;
+			bits += 8;
+
+			while (bits >= this.bitsPerChar) {
+				bits -= this.bitsPerChar;
+				dst.append(this.alphabet[buffer >>> bits & mask]);
+			}
+
+			buffer &= (1 << bits) - 1;
+		}
+
+		if (bits > 0) {
+			dst.append(this.alphabet[buffer << this.bitsPerChar - bits & mask]);
+		}
+
+		if (this.padding != 0) {
+			while ((dst.length() - start) % this.charsPerBlock != 0) {
+				dst.append(this.padding);
+			}
+		}
+	}
+
+	@Override
+	public int decode(CharSequence src, byte[] dst, int dstOffset) {
+		int buffer = 0, bits = 0, pos = dstOffset;
+		int end = src.length();
+
+		for (int i = 0; i < end; i++) {
+			char ch = src.charAt(i);
+
+			if (ch == this.padding && this.padding != 0) {
+				// Nothing but padding is allowed after the first one
+				for (int j = i + 1; j < end; j++) {
+					if (src.charAt(j) != this.padding)
+						return -1;
+				}
+
+				break;
+			}
+
+			int value = this.lookup(ch);
+
+			if (value < 0) {
+				if (this.skipUnknown) {
+					continue;
+				}
+
+				return -1;
+			}
+
+			buffer = buffer << this.bitsPerChar | value;
+			bits += this.bitsPerChar;
+
+			if (bits >= 8) {
+				bits -= 8;
+				dst[pos++] = (byte) (buffer >>> bits);
+				buffer &= (1 << bits) - 1;
+			}
+		}
+
+		// A whole character that didn't contribute to any byte means input was truncated
+		if (bits >= this.bitsPerChar && !this.skipUnknown)
+			return -1;
+
+		return pos - dstOffset;
+	}
+
+	private int lookup(char ch) {
+		return this.reverse[ch >>> 8][ch & 0xFF];
+	}
+
+	private void put(char ch, int value) {
+		short[] page = this.reverse[ch >>> 8];
+
+		if (page == EMPTY_PAGE) {
+			page = this.reverse[ch >>> 8] = createEmptyPage();
+		}
+
+		page[ch & 0xFF] = (short) value;
+	}
+
+	private static short[] createEmptyPage() {
+		short[] page = new short[256];
+		Arrays.fill(page, (short) -1);
+		return page;
+	}
+
+	private static int lcm(int a, int b) {
+		int x = a, y = b;
+
+		while (y != 0) {
+			int t = x % y;
+			x = y;
+			y = t;
+		}
+
+		return a / x * b;
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.aizistral.nochatreports.common.encryption;
+
+import com.aizistral.nochatreports.common.compression.Compression;
+
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+/**
+ * Outcome of {@link Encryptor#tryDecrypt(String)}. Failures are shared constants, so that
+ * rejecting a message allocates nothing.
+ *
+ * @param text Plaintext without "#%" framing, null unless decryption succeeded.
+ * @param encapsulation Name of the encapsulation the message was decoded with, if known.
+ * @param compression Compression the plaintext was decompressed with, if any.
+ * @param compressionRatio Ratio of decompressed to compressed length, if compressed.
+ */
+
+public record DecryptionResult(Status status, @Nullable String text, @Nullable String encapsulation,
+		@Nullable Compression compression, @Nullable Float compressionRatio) {
+	public static final DecryptionResult NOT_ENCAPSULATED = new DecryptionResult(Status.NOT_ENCAPSULATED);
+	public static final DecryptionResult TRUNCATED = new DecryptionResult(Status.TRUNCATED);
+	public static final DecryptionResult WRONG_KEY = new DecryptionResult(Status.WRONG_KEY);
+	public static final DecryptionResult AUTHENTICATION_FAILED = new DecryptionResult(Status.AUTHENTICATION_FAILED);
+	public static final DecryptionResult MALFORMED = new DecryptionResult(Status.MALFORMED);
+	public static final DecryptionResult DECOMPRESSION_FAILED = new DecryptionResult(Status.DECOMPRESSION_FAILED);
+
+	private DecryptionResult(Status status) {
+		this(status, null, null, null, null);
+	}
+
+	public static DecryptionResult success(String text, @Nullable String encapsulation, @Nullable Compression compression,
+			@Nullable Float compressionRatio) {
+		return new DecryptionResult(Status.SUCCESS, text, encapsulation, compression, compressionRatio);
+	}
+
+	public static DecryptionResult failure(Status status) {
+		return switch (status) {
+			case NOT_ENCAPSULATED -> NOT_ENCAPSULATED;
+			case TRUNCATED -> TRUNCATED;
+			case WRONG_KEY -> WRONG_KEY;
+			case AUTHENTICATION_FAILED -> AUTHENTICATION_FAILED;
+			case MALFORMED -> MALFORMED;
+			case DECOMPRESSION_FAILED -> DECOMPRESSION_FAILED;
+			case SUCCESS -> throw new IllegalArgumentException("Success is not a failure");
+		};
+	}
+
+	public boolean isSuccess() {
+		return this.status == Status.SUCCESS;
+	}
+
+	/**
+	 * Ordered by how far decryption got before failing, so that when several attempts fail,
+	 * the one that got furthest can be reported.
+	 */
+
+	public enum Status {
+		/** Message doesn't decode with any encapsulation. */
+		NOT_ENCAPSULATED,
+		/** Payload is too short or misaligned to be a ciphertext of this encryptor. */
+		TRUNCATED,
+		/** Payload carries fingerprint of a different key. */
+		WRONG_KEY,
+		/** Authentication tag didn't match, most likely a different key without fingerprint. */
+		AUTHENTICATION_FAILED,
+		/** Decrypted into something that isn't framed plaintext, or had invalid padding. */
+		MALFORMED,
+		/** Plaintext was compressed, but couldn't be decompressed. */
+		DECOMPRESSION_FAILED,
+		SUCCESS;
+	}
+
+}
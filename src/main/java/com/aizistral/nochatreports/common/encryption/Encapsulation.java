@@ -0,0 +1,202 @@
+package com.aizistral.nochatreports.common.encryption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+/**
+ * Text representation of encrypted binary payload, that is, the way ciphertext looks like
+ * when sent to chat. Order of registration is the order in which encapsulations are tried
+ * when decrypting.
+ */
+
+public abstract class Encapsulation {
+	private static final List<Encapsulation> REGISTERED = new ArrayList<>();
+
+	public static final BitEncapsulation BASE64R = new BitEncapsulation("Base64R", 6,
+			"!\"#$%¼'(),-.:;<=>?@[\\]^_`{|}~¡¢£¤¥¦¨©ª«¬®¯°±²³µ¶·×¹º0123456789+»", '¿', "", "", false);
+	public static final BitEncapsulation BASE64 = new BitEncapsulation("Base64", 6,
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+\\", '=', "/", "\\", false);
+	public static final BitEncapsulation SUS16 = new BitEncapsulation("Sus16", 4,
+			"ඔඕඖඞචඩඬධඹවဨ၅၆၉ၡဥ", (char) 0, "", "", false);
+	public static final BitEncapsulation MC256 = new BitEncapsulation("MC256", 8,
+			"⅛⅜⅝⅞⅓⅔✉☂☔☄⛄☃⚐✎❣♤♧♡♢⛈ªº¬«»░▒▓∅∈≡±≥≤⌠⌡÷≈°∙√ⁿ²¡‰­·₴≠×ΦΨικλοπτυφЯабвгдежзиклмнопрстуфхцчшщъыьэюяєѕіј„…⁊←↑→↓⇄＋ƏəɛɪҮүӨөʻˌ;ĸ⁰¹³⁴⁵⁶⁷⁸⁹⁺⁻⁼⁽⁾ⁱ™⧈⚔☠ᴀʙᴄᴅᴇꜰɢʜᴊᴋʟᴍɴᴏᴘꞯʀꜱᴛᴜᴠᴡʏᴢ¢¤¥©®µ¶¼½¾·‐‚†‡•‱′″‴‵‶‷‹›※‼⁂⁉⁎⁑⁒⁗℗−∓∞☀☁☈Є☲☵☽♀♂⚥♠♣♥♦♩♪♫♬♭♮♯⚀⚁⚂⚃⚄⚅ʬ⚡⛏✔❄❌❤⭐△▷▽◁◆◇○◎☆★✘⸸▲▶▼◀●◦◘⚓ᛩᛪ☺☻",
+			(char) 0, "", "", false);
+	public static final BitEncapsulation INVIS2 = new BitEncapsulation("Invis2", 1, " \u200c", (char) 0,
+			"", "", true);
+
+	/**
+	 * Character that is not part of any alphabet, appended to encapsulated payloads that start
+	 * with key fingerprint. Since no encapsulation can produce it, payloads without fingerprint
+	 * are never mistaken for ones that have it.
+	 */
+	public static final char KEY_FINGERPRINT_MARKER = '*';
+
+	private static final int[][] FLAG_PAGES = createFlagPages();
+	private static final int SKIPPING_FLAGS = createSkippingFlags();
+
+	private final String name;
+	private final int flag;
+
+	protected Encapsulation(String name) {
+		this.name = name;
+
+		if (REGISTERED.stream().anyMatch(e -> e.getName().equalsIgnoreCase(name)))
+			throw new IllegalStateException("Duplicate encapsulation registered! Name: " + name);
+		else if (REGISTERED.size() >= Integer.SIZE)
+			throw new IllegalStateException("Too many encapsulations registered!");
+
+		this.flag = 1 << REGISTERED.size();
+		REGISTERED.add(this);
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return Bit identifying this encapsulation in the result of {@link #classify(CharSequence)}.
+	 */
+
+	public int getFlag() {
+		return this.flag;
+	}
+
+	/**
+	 * @return All characters this encapsulation may produce or accept, including padding.
+	 */
+
+	public abstract String getAlphabet();
+
+	/**
+	 * @return Whether decoder ignores characters outside of the alphabet, instead of
+	 * rejecting the input.
+	 */
+
+	public abstract boolean skipsUnknownCharacters();
+
+	public abstract int getEncodedLength(int bytes);
+
+	public abstract int getMaxDecodedLength(int chars);
+
+	/**
+	 * Encodes bytes into caller-provided array, which must have room for at least
+	 * {@link #getEncodedLength(int)} characters.
+	 *
+	 * @return Number of characters written.
+	 */
+
+	public abstract int encode(byte[] src, int offset, int length, char[] dst, int dstOffset);
+
+	public abstract void encode(byte[] src, int offset, int length, StringBuilder dst);
+
+	/**
+	 * Decodes characters into caller-provided array, which must have room for at least
+	 * {@link #getMaxDecodedLength(int)} bytes.
+	 *
+	 * @return Number of bytes written, or -1 if input is not valid for this encapsulation.
+	 */
+
+	public abstract int decode(CharSequence src, byte[] dst, int dstOffset);
+
+	public String encode(byte[] data) {
+		StringBuilder builder = new StringBuilder(this.getEncodedLength(data.length));
+		this.encode(data, 0, data.length, builder);
+		return builder.toString();
+	}
+
+	public @Nullable byte[] decode(CharSequence message) {
+		byte[] buffer = new byte[this.getMaxDecodedLength(message.length())];
+		int length = this.decode(message, buffer, 0);
+
+		if (length < 0)
+			return null;
+
+		return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+	}
+
+	public static List<Encapsulation> getRegistered() {
+		return Collections.unmodifiableList(REGISTERED);
+	}
+
+	public static @Nullable Encapsulation byName(String name) {
+		for (Encapsulation encapsulation : REGISTERED) {
+			if (encapsulation.getName().equalsIgnoreCase(name))
+				return encapsulation;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Scans the message once and determines which encapsulations it could possibly be
+	 * encoded with, judging by the characters it contains.
+	 *
+	 * @return Bitmask of {@link #getFlag()} values, or 0 if message can't be decoded
+	 * by any of them.
+	 */
+
+	public static int classify(CharSequence message) {
+		if (message.isEmpty())
+			return 0;
+
+		int strict = ~SKIPPING_FLAGS, skipping = 0;
+
+		for (int i = 0; i < message.length(); i++) {
+			char ch = message.charAt(i);
+			int flags = FLAG_PAGES[ch >>> 8][ch & 0xFF];
+			strict &= flags;
+
+			// Lenient decoders just need some sign of their presence, but whitespace doesn't count
+			if (!Character.isWhitespace(ch)) {
+				skipping |= flags & SKIPPING_FLAGS;
+			}
+		}
+
+		return strict | skipping;
+	}
+
+	private static int[][] createFlagPages() {
+		int[] empty = new int[256];
+		int[][] pages = new int[256][];
+
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = empty;
+		}
+
+		for (Encapsulation encapsulation : REGISTERED) {
+			String alphabet = encapsulation.getAlphabet();
+
+			for (int i = 0; i < alphabet.length(); i++) {
+				char ch = alphabet.charAt(i);
+
+				if (ch == KEY_FINGERPRINT_MARKER)
+					throw new IllegalStateException("Alphabet of " + encapsulation.getName() + " contains key fingerprint marker!");
+
+				if (pages[ch >>> 8] == empty) {
+					pages[ch >>> 8] = new int[256];
+				}
+
+				pages[ch >>> 8][ch & 0xFF] |= encapsulation.getFlag();
+			}
+		}
+
+		return pages;
+	}
+
+	private static int createSkippingFlags() {
+		int flags = 0;
+
+		for (Encapsulation encapsulation : REGISTERED) {
+			if (encapsulation.skipsUnknownCharacters()) {
+				flags |= encapsulation.getFlag();
+			}
+		}
+
+		return flags;
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.aizistral.nochatreports.common.encryption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
+
+/**
+ * Part of an encrypted payload that was too long to fit in a single chat packet. Each chunk
+ * carries cleartext header with message ID, its index and total number of chunks, followed
+ * by a slice of the encrypted payload. Chunks are encapsulated individually.
+ *
+ * @param encapsulation Encapsulation this chunk was received in.
+ */
+
+public record MessageChunk(int id, int index, int count, byte[] data, Encapsulation encapsulation) {
+	public static final int MAX_COUNT = 16;
+	public static final int HEADER_LENGTH = 8;
+	private static final byte[] MAGIC = { (byte) 0x4E, (byte) 0xCA };
+
+	public byte[] toPayload() {
+		byte[] payload = new byte[HEADER_LENGTH + this.data.length];
+		payload[0] = MAGIC[0];
+		payload[1] = MAGIC[1];
+		payload[2] = (byte) (this.id >>> 24);
+		payload[3] = (byte) (this.id >>> 16);
+		payload[4] = (byte) (this.id >>> 8);
+		payload[5] = (byte) this.id;
+		payload[6] = (byte) this.index;
+		payload[7] = (byte) this.count;
+		System.arraycopy(this.data, 0, payload, HEADER_LENGTH, this.data.length);
+		return payload;
+	}
+
+	public static @Nullable MessageChunk fromPayload(byte[] payload, Encapsulation encapsulation) {
+		if (payload.length <= HEADER_LENGTH || payload[0] != MAGIC[0] || payload[1] != MAGIC[1])
+			return null;
+
+		int id = (payload[2] & 0xFF) << 24 | (payload[3] & 0xFF) << 16 | (payload[4] & 0xFF) << 8 | payload[5] & 0xFF;
+		int index = payload[6] & 0xFF;
+		int count = payload[7] & 0xFF;
+
+		if (count < 2 || count > MAX_COUNT || index >= count)
+			return null;
+
+		return new MessageChunk(id, index, count, Arrays.copyOfRange(payload, HEADER_LENGTH, payload.length), encapsulation);
+	}
+
+	/**
+	 * Splits encrypted payload into chunks of at most given size.
+	 *
+	 * @return List of chunks, or empty list if it would take more than {@link #MAX_COUNT} of them.
+	 */
+
+	public static List<MessageChunk> split(byte[] payload, int chunkSize, Encapsulation encapsulation) {
+		if (chunkSize <= 0 || (payload.length + chunkSize - 1) / chunkSize > MAX_COUNT)
+			return List.of();
+
+		int count = (payload.length + chunkSize - 1) / chunkSize;
+		int id = Encryptor.RANDOM.nextInt();
+		List<MessageChunk> chunks = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			chunks.add(new MessageChunk(id, i, count, Arrays.copyOfRange(payload, i * chunkSize,
+					Math.min(payload.length, (i + 1) * chunkSize)), encapsulation));
+		}
+
+		return chunks;
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.aizistral.nochatreports.common.mixins.client;
+
+import java.util.List;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+import net.minecraft.client.GuiMessage;
+import net.minecraft.client.gui.components.ChatComponent;
+
+@Mixin(ChatComponent.class)
+public interface AccessorChatComponent {
+
+	@Accessor("allMessages")
+	public List<GuiMessage> getAllMessages();
+
+	@Accessor("chatScrollbarPos")
+	public int getChatScrollbarPos();
+
+	@Accessor("chatScrollbarPos")
+	public void setChatScrollbarPos(int value);
+
+	@Accessor("newMessageSinceScroll")
+	public boolean hasNewMessageSinceScroll();
+
+	@Accessor("newMessageSinceScroll")
+	public void setNewMessageSinceScroll(boolean value);
+
+	@Invoker("refreshTrimmedMessages")
+	public void invokeRefreshTrimmedMessages();
+
+}
@@ -1,40 +1,46 @@
 package com.aizistral.nochatreports.common.mixins.client;
 
-import com.aizistral.nochatreports.common.compression.Compression;
 import me.shedaniel.cloth.clothconfig.shadowed.blue.endless.jankson.annotation.Nullable;
 import net.minecraft.network.chat.MutableComponent;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.At.Shift;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.aizistral.nochatreports.common.NCRCore;
 import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.core.ChunkReassembler;
+import com.aizistral.nochatreports.common.core.DecryptionQueue;
 import com.aizistral.nochatreports.common.core.EncryptionUtil;
+import com.aizistral.nochatreports.common.core.EncryptionUtil.DetailedDecryptionInfo;
+import com.aizistral.nochatreports.common.core.EncryptionWarmup;
 
 import org.spongepowered.asm.mixin.injection.ModifyArg;
 import org.spongepowered.asm.mixin.injection.ModifyVariable;
 
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.GuiMessage;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.GuiMessageTag;
 import net.minecraft.client.gui.components.ChatComponent;
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.network.chat.CommonComponents;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.FormattedText;
+import net.minecraft.network.chat.MessageSignature;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
 @Mixin(ChatComponent.class)
 public class MixinChatComponent {
 	private static final GuiMessageTag.Icon ENCRYPTED_ICON = GuiMessageTag.Icon.valueOf("CHAT_NCR_ENCRYPTED");
-	private boolean lastMessageEncrypted;
-	private Component lastMessageOriginal;
-	private int lastMessageKeyIndex;
-	private @Nullable String lastMessageEncapsulation;
-	private @Nullable Compression lastMessageCompression;
-	private @Nullable Float lastMessageCompressionRatio;
+	private final Queue<Runnable> deferredMessages = new ArrayDeque<>();
+	private int deferredAddedTime = -1;
+	private boolean refreshScheduled;
 
 	@ModifyVariable(method = "addRecentChat", at = @At("HEAD"), argsOnly = true)
 	private String onAddRecentChat(String message) {
@@ -44,54 +50,148 @@ public class MixinChatComponent {
 			return message;
 	}
 
+	@Inject(method = "addMessage(Lnet/minecraft/network/chat/Component;"
+			+ "Lnet/minecraft/network/chat/MessageSignature;Lnet/minecraft/client/GuiMessageTag;)V",
+			at = @At("HEAD"), cancellable = true)
+	private void onAddMessage(Component message, @Nullable MessageSignature signature, @Nullable GuiMessageTag tag, CallbackInfo info) {
+		if (!NCRConfig.getEncryption().isValid())
+			return;
+
+		var result = ChunkReassembler.accept(message);
+
+		if (result.status() == ChunkReassembler.Status.PENDING) {
+			// Don't show anything until all chunks are there
+			info.cancel();
+		} else if (result.status() == ChunkReassembler.Status.COMPLETE) {
+			info.cancel();
+			((ChatComponent) (Object) this).addMessage(result.message(), signature, tag);
+		} else if (!EncryptionWarmup.isReady() && EncryptionUtil.mayBeEncrypted(message)) {
+			// Try again once decryption can't stall render thread
+			this.defer(message, signature, tag);
+			info.cancel();
+		}
+	}
+
+	/**
+	 * Holds the message back until warm-up is done. All of them are added back from a single
+	 * callback, in the order they were received and with the time they were received at.
+	 */
+
+	private void defer(Component message, @Nullable MessageSignature signature, @Nullable GuiMessageTag tag) {
+		int addedTime = Minecraft.getInstance().gui.getGuiTicks();
+		ChatComponent chat = (ChatComponent) (Object) this;
+
+		if (this.deferredMessages.isEmpty()) {
+			EncryptionWarmup.all().thenRunAsync(this::addDeferred, Minecraft.getInstance());
+		}
+
+		this.deferredMessages.add(() -> {
+			this.deferredAddedTime = addedTime;
+
+			try {
+				chat.addMessage(message, signature, tag);
+			} finally {
+				this.deferredAddedTime = -1;
+			}
+		});
+	}
+
+	private void addDeferred() {
+		while (!this.deferredMessages.isEmpty()) {
+			this.deferredMessages.poll().run();
+		}
+	}
+
 	@ModifyVariable(index = -1, method = "addMessage(Lnet/minecraft/network/chat/Component;"
 			+ "Lnet/minecraft/network/chat/MessageSignature;Lnet/minecraft/client/GuiMessageTag;)V",
 			at = @At(value = "INVOKE", target = "Lnet/minecraft/client/gui/components/ChatComponent;"
 					+ "logChatMessage(Lnet/minecraft/client/GuiMessage;)V", ordinal = 0, shift = Shift.BEFORE))
 	private GuiMessage modifyGUIMessage(GuiMessage msg) {
+		if (this.deferredAddedTime >= 0) {
+			msg = new GuiMessage(this.deferredAddedTime, msg.content(), msg.signature(), msg.tag());
+		}
+
+		GuiMessage original = msg;
+
 		if (NCRConfig.getCommon().enableDebugLog()) {
 			NCRCore.LOGGER.info("Adding chat message, structure: " +
 					Component.Serializer.toJson(msg.content(),  RegistryAccess.EMPTY));
 		}
 
-		var decrypted = EncryptionUtil.tryDecryptDetailed(msg.content());
-
-		decrypted.ifPresentOrElse(info -> {
-			this.lastMessageOriginal = EncryptionUtil.recreate(msg.content());
-			this.lastMessageEncrypted = true;
-			this.lastMessageKeyIndex = info.keyIndex();
-			this.lastMessageEncapsulation = info.encapsulation();
-			this.lastMessageCompression = info.compression();
-			this.lastMessageCompressionRatio = info.compressionRatio();
-		}, () -> this.lastMessageEncrypted = false);
-
-		if (this.lastMessageEncrypted) {
-			this.lastMessageEncrypted = false;
-
-			Component decryptedComponent = decrypted.get().decrypted();
-			GuiMessageTag newTag = msg.tag();
-
-			if (NCRConfig.getEncryption().showEncryptionIndicators()) {
-				MutableComponent tooltip = Component.empty().append(Component.translatable("tag.nochatreports.encrypted",
-								Component.literal(NCRConfig.getEncryption().getAlgorithm().getName()).withStyle(ChatFormatting.BOLD)))
-						.append(CommonComponents.NEW_LINE)
-						.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_key", this.lastMessageKeyIndex))
-						.append(CommonComponents.NEW_LINE)
-						.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_encapsultation", this.lastMessageEncapsulation == null ? "Unknown" : this.lastMessageEncapsulation))
-						.append(CommonComponents.NEW_LINE);
-				if(lastMessageCompression != null)
-					tooltip = tooltip.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_compression", this.lastMessageCompression.getCompressionName()))
-							.append(CommonComponents.NEW_LINE);
-				if(lastMessageCompressionRatio != null)
-					tooltip = tooltip.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_compression_ratio", new BigDecimal(lastMessageCompressionRatio).setScale(2, RoundingMode.HALF_UP)))
-							.append(CommonComponents.NEW_LINE);
-				tooltip = tooltip.append(Component.translatable("tag.nochatreports.encrypted_original", this.lastMessageOriginal));
-				newTag = new GuiMessageTag(0x8B3EC7, ENCRYPTED_ICON, tooltip, "Encrypted");
+		// Plain chat isn't worth a trip to the pool, nor the refresh after it
+		if (EncryptionUtil.mayBeEncrypted(msg.content()) &&
+				DecryptionQueue.trySubmit(msg.content(), info -> this.replaceMessage(original, info)))
+			return msg; // Shown as is until decrypted
+
+		return EncryptionUtil.tryDecryptDetailed(msg.content()).map(info -> this.withDecrypted(msg, info)).orElse(msg);
+	}
+
+	/**
+	 * Swaps the message for its decrypted version, unless it has already been removed from chat
+	 * or replaced otherwise in the meantime.
+	 */
+
+	private void replaceMessage(GuiMessage original, DetailedDecryptionInfo info) {
+		var messages = ((AccessorChatComponent) this).getAllMessages();
+
+		for (int i = 0; i < messages.size(); i++) {
+			if (messages.get(i) == original) {
+				messages.set(i, this.withDecrypted(original, info));
+				this.scheduleRefresh();
+				return;
 			}
+		}
+	}
+
+	/**
+	 * Rebuilds wrapped lines once after all messages decrypted so far have been swapped, rather
+	 * than after every one of them. Rebuilding scrolls chat by one for every line while it is
+	 * scrolled up, so the scroll position is put back afterwards.
+	 */
+
+	private void scheduleRefresh() {
+		if (this.refreshScheduled)
+			return;
+
+		this.refreshScheduled = true;
+		Minecraft.getInstance().tell(() -> {
+			var accessor = (AccessorChatComponent) this;
+			int scroll = accessor.getChatScrollbarPos();
+			boolean newMessage = accessor.hasNewMessageSinceScroll();
+
+			this.refreshScheduled = false;
+			accessor.invokeRefreshTrimmedMessages();
+
+			// Clamped to the new number of lines, and unscrolled chat has nothing new to point at
+			accessor.setChatScrollbarPos(scroll);
+			((ChatComponent) (Object) this).scrollChat(0);
+			accessor.setNewMessageSinceScroll(newMessage && accessor.getChatScrollbarPos() > 0);
+		});
+	}
+
+	private GuiMessage withDecrypted(GuiMessage msg, DetailedDecryptionInfo info) {
+		Component decryptedComponent = info.decrypted();
+		GuiMessageTag newTag = msg.tag();
+
+		if (NCRConfig.getEncryption().showEncryptionIndicators()) {
+			MutableComponent tooltip = Component.empty().append(Component.translatable("tag.nochatreports.encrypted",
+							Component.literal(NCRConfig.getEncryption().getAlgorithm().getName()).withStyle(ChatFormatting.BOLD)))
+					.append(CommonComponents.NEW_LINE)
+					.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_key", info.keyIndex()))
+					.append(CommonComponents.NEW_LINE)
+					.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_encapsultation", info.encapsulation() == null ? "Unknown" : info.encapsulation()))
+					.append(CommonComponents.NEW_LINE);
+			if(info.compression() != null)
+				tooltip = tooltip.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_compression", info.compression().getCompressionName()))
+						.append(CommonComponents.NEW_LINE);
+			if(info.compressionRatio() != null)
+				tooltip = tooltip.append(Component.translatable("tag.nochatreports.encryption_tooltip_extra_compression_ratio", new BigDecimal(info.compressionRatio()).setScale(2, RoundingMode.HALF_UP)))
+						.append(CommonComponents.NEW_LINE);
+			tooltip = tooltip.append(Component.translatable("tag.nochatreports.encrypted_original", msg.content())); // Decryption never modifies the original
+			newTag = new GuiMessageTag(0x8B3EC7, ENCRYPTED_ICON, tooltip, "Encrypted");
+		}
 
-			return new GuiMessage(msg.addedTime(), decryptedComponent, msg.signature(), newTag);
-		} else
-			return msg;
+		return new GuiMessage(msg.addedTime(), decryptedComponent, msg.signature(), newTag);
 	}
 
 }
@@ -16,6 +16,7 @@ import com.aizistral.nochatreports.common.NCRClient;
 import com.aizistral.nochatreports.common.NCRCore;
 import com.aizistral.nochatreports.common.config.NCRConfig;
 import com.aizistral.nochatreports.common.core.EncryptionUtil;
+import com.aizistral.nochatreports.common.core.EncryptionWarmup;
 import com.aizistral.nochatreports.common.core.ServerSafetyLevel;
 import com.aizistral.nochatreports.common.core.ServerSafetyState;
 import com.aizistral.nochatreports.common.core.SigningMode;
@@ -115,6 +116,9 @@ public class MixinChatListener {
 	@ModifyVariable(method = "narrateChatMessage(Lnet/minecraft/network/chat/ChatType$Bound;"
 			+ "Lnet/minecraft/network/chat/Component;)V", at = @At("HEAD"), argsOnly = true)
 	private Component decryptNarratedMessage(Component msg) {
+		if (!EncryptionWarmup.isReady())
+			return msg;
+
 		return EncryptionUtil.tryDecrypt(msg).orElse(msg);
 	}
 
@@ -1,6 +1,5 @@
 package com.aizistral.nochatreports.common.mixins.client;
 
-import com.aizistral.nochatreports.common.encryption.AESEncryptor;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
@@ -11,6 +10,8 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import com.aizistral.nochatreports.common.NCRClient;
 import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.core.ChunkSender;
+import com.aizistral.nochatreports.common.core.EncryptionUtil;
 import com.aizistral.nochatreports.common.core.ServerSafetyLevel;
 import com.aizistral.nochatreports.common.core.ServerSafetyState;
 import com.aizistral.nochatreports.common.core.SigningMode;
@@ -58,6 +59,7 @@ public abstract class MixinChatScreen extends Screen {
 	private static final ResourceLocation ENCRYPTION_BUTTON = new ResourceLocation("nochatreports",
 			"textures/gui/encryption_toggle_button.png");
 	private AdvancedImageButton safetyStatusButton;
+	private List<String> pendingChunks;
 	@Shadow
 	protected EditBox input;
 
@@ -94,9 +96,20 @@ public abstract class MixinChatScreen extends Screen {
 		}
 	}
 
+	@Inject(method = "handleChatInput", at = @At("RETURN"))
+	private void onHandledChatInput(String string, boolean bl, CallbackInfo info) {
+		if (this.pendingChunks == null)
+			return;
+
+		// Remaining chunks of a message that didn't fit in a single packet
+		ChunkSender.enqueue(this.pendingChunks);
+		this.pendingChunks = null;
+	}
+
 	@Inject(method = "normalizeChatMessage", at = @At("RETURN"), cancellable = true)
 	public void onBeforeMessage(String original, CallbackInfoReturnable<String> info) {
 		final String[] message = { info.getReturnValue() };
+		this.pendingChunks = null;
 		NCRConfig.getEncryption().setLastMessage(message[0]);
 
 		if (!message[0].isEmpty() && !Screen.hasControlDown() && NCRConfig.getEncryption().shouldEncrypt(message[0])) {
@@ -108,28 +121,17 @@ public abstract class MixinChatScreen extends Screen {
 				String encrypt = message[0].substring(index);
 
 				if (encrypt.length() > 0) {
-					info.setReturnValue(getEncrypted(noencrypt, e, encrypt, MESSAGE_MAX_LENGTH));
+					List<String> encrypted = getEncrypted(noencrypt, e, encrypt, MESSAGE_MAX_LENGTH);
+					info.setReturnValue(encrypted.get(0));
+					this.pendingChunks = encrypted.subList(1, encrypted.size());
 				}
 			});
 		}
 	}
 
-	private String getEncrypted(String noencrypt, Encryptor<?> e, String encrypt, int maxLength) {
-		while (encrypt.length() > 0) {
-			String encrypted;
-			if (e instanceof AESEncryptor<?>)
-				encrypted = ((AESEncryptor<?>) e).encryptAndCompress(noencrypt, encrypt,
-						NCRConfig.getEncryption().getCompressionPolicy(),
-						NCRConfig.getEncryption().getSpecificCompression());
-			else
-				encrypted = noencrypt + e.encrypt("#%" + encrypt);
-			if (encrypted.length() <= maxLength)
-				return encrypted;
-
-			encrypt = encrypt.substring(0, encrypt.length() - 1);
-		}
-
-		return "";
+	private List<String> getEncrypted(String noencrypt, Encryptor<?> e, String encrypt, int maxLength) {
+		return EncryptionUtil.encryptChunked(noencrypt, e, encrypt, maxLength,
+				NCRConfig.getEncryption().getMaxMessageChunks());
 	}
 
 	@Inject(method = "init", at = @At("HEAD"))
@@ -146,7 +148,9 @@ public abstract class MixinChatScreen extends Screen {
 							GUIShenanigans.getSprites("safety_state/unknown"),
 							GUIShenanigans.getSprites("safety_state/undefined")).setIndex(this.getSpriteSet()),
 					btn -> {
-						if (!NCRClient.areSigningKeysPresent())
+						// Modes can still be picked while keys are being fetched, they only stop
+						// mattering once keys turn out to be absent
+						if (NCRClient.areSigningKeysAbsent())
 							return;
 
 						var address = ServerSafetyState.getLastServer();
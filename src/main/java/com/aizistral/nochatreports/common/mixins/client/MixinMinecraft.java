@@ -9,7 +9,9 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import com.aizistral.nochatreports.common.NCRClient;
+import com.aizistral.nochatreports.common.NCRCore;
 import com.aizistral.nochatreports.common.config.NCRConfig;
+import com.aizistral.nochatreports.common.core.ChunkSender;
 import com.aizistral.nochatreports.common.core.ServerSafetyState;
 
 import net.minecraft.client.Minecraft;
@@ -23,8 +25,19 @@ public class MixinMinecraft {
 
 	@Inject(method = "<init>(Lnet/minecraft/client/main/GameConfig;)V", at = @At("RETURN"))
 	private void onConstructed(GameConfig config, CallbackInfo info) {
-		NCRClient.setSigningKeysPresent(this.profileKeyPairManager.prepareKeyPair()
-				.join().isPresent());
+		// Don't hold up startup on a round-trip to the key service, state remains unknown until then
+		this.profileKeyPairManager.prepareKeyPair().whenComplete((keys, ex) -> {
+			if (ex != null) {
+				NCRCore.LOGGER.error("Failed to retrieve profile key pair", ex);
+			}
+
+			NCRClient.setSigningKeysPresent(ex == null && keys.isPresent());
+		});
+	}
+
+	@Inject(method = "tick", at = @At("TAIL"))
+	private void onTick(CallbackInfo info) {
+		ChunkSender.tick((Minecraft) (Object) this);
 	}
 
 	@Inject(method = "getProfileKeyPairManager", at = @At("HEAD"), cancellable = true)
@@ -0,0 +1,202 @@
+package com.aizistral.nochatreports.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pins down the wire format of both Custom compression formats, which older clients still have
+ * to be able to read, and makes sure that malformed data fails cleanly. Uses a tiny dictionary
+ * of its own, so that expected bytes don't depend on whatever word lists are shipped.
+ */
+class CustomCompressionTest {
+    private static final byte[] LEGACY_HEADER = { 0x10 };
+    private static final byte[] TOKENIZED_HEADER = { 0x40 };
+    private static final String WORDS = "the\nyou\nhello\nworld\nis\n";
+    private static final List<String> LEAKS = Collections.synchronizedList(new ArrayList<>());
+    private static WordDictionary dictionary;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        // Has to happen before the first ByteBuf class is initialized, which is when detector is created
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new RecordingLeakDetectorFactory());
+        dictionary = WordDictionary.fromWordList(new ByteArrayInputStream(WORDS.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void legacyWireFormat() throws IOException {
+        assertWireFormat(LEGACY_HEADER, "hello world", 0x10, 3, 4);
+        assertWireFormat(LEGACY_HEADER, "hello qq", 0x10, 3, 0, 2, 'q', 'q');
+        assertWireFormat(LEGACY_HEADER, "Hello, world!", 0x10, 0, 6, 'H', 'e', 'l', 'l', 'o', ',', 0, 6, 'w', 'o', 'r', 'l', 'd', '!');
+        assertWireFormat(LEGACY_HEADER, "", 0x10);
+
+        // Literal length over 127 takes two VarInt bytes
+        byte[] literal = new byte[200];
+        Arrays.fill(literal, (byte) 'x');
+        byte[] expected = new byte[4 + literal.length];
+        expected[0] = 0x10;
+        expected[2] = (byte) 0xC8;
+        expected[3] = 0x01;
+        System.arraycopy(literal, 0, expected, 4, literal.length);
+        assertWireFormat(LEGACY_HEADER, new String(literal, StandardCharsets.UTF_8), expected);
+    }
+
+    @Test
+    void tokenizedWireFormat() throws IOException {
+        assertWireFormat(TOKENIZED_HEADER, "hello world", 0x40, 39, 40);
+        assertWireFormat(TOKENIZED_HEADER, "Hello, WORLD!", 0x40, 1, 39, 16, 2, 40, 5);
+        assertWireFormat(TOKENIZED_HEADER, "you (hello)", 0x40, 38, 4, 12, 3, 39, 13);
+        assertWireFormat(TOKENIZED_HEADER, "hello ", 0x40, 39, 0, 0);
+        assertWireFormat(TOKENIZED_HEADER, "HeLLo qq", 0x40, 0, 5, 'H', 'e', 'L', 'L', 'o', 0, 2, 'q', 'q');
+        assertWireFormat(TOKENIZED_HEADER, "", 0x40);
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        String[] messages = {
+                "the", "what is this?!", "  leading and double  spaces", "is THE world, you know...",
+                "\"quoted\" (and) [bracketed]", "ünïcödé wörds ärë literal", "emoji 😀 too", "a  b   c"
+        };
+
+        for(String message : messages) {
+            assertEquals(message, roundTrip(LEGACY_HEADER, message));
+            assertEquals(message, roundTrip(TOKENIZED_HEADER, message));
+        }
+    }
+
+    @Test
+    void malformedInput() {
+        // Truncated VarInt
+        assertMalformed(0x40, 0x80);
+        assertMalformed(0x10, 0xFF, 0xFF);
+        // VarInt longer than five bytes
+        assertMalformed(0x40, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01);
+        assertMalformed(0x10, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x00);
+        // Literal longer than the rest of data, or with negative length
+        assertMalformed(0x40, 0, 5, 'a');
+        assertMalformed(0x10, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        // Word index past the end of dictionary
+        assertMalformed(0x40, 42);
+        // Unknown compression id, or dictionary that doesn't exist
+        assertThrows(IOException.class, () -> Compression.COMPRESSION_CUSTOM.decompress(bytes(0x30, 1)));
+        assertThrows(IOException.class, () -> Compression.COMPRESSION_CUSTOM.decompress(bytes(0x4F, 1)));
+    }
+
+    @Test
+    void legacyMissingWord() throws IOException {
+        // Old format never treated this as an error, so neither should the new decoder
+        assertEquals("hello <Missing word!>", decompress(bytes(0x10, 3, 6)));
+    }
+
+    @Test
+    void boundedOutput() {
+        byte[] bomb = new byte[4096];
+        Arrays.fill(bomb, (byte) 39);
+        bomb[0] = 0x40;
+
+        ByteSink out = new ByteSink(64, Compression.MAX_DECOMPRESSION_SIZE);
+        assertThrows(IOException.class, () -> Compression.COMPRESSION_CUSTOM.decompress(bomb, 0, bomb.length, out, dictionary));
+        assertTrue(out.array().length <= Compression.MAX_DECOMPRESSION_SIZE);
+    }
+
+    @Test
+    void noLeaks() throws Exception {
+        for(int i = 0; i < 1000; i++) {
+            String message = "Hello, WORLD! you said qq #" + i;
+            assertEquals(message, roundTrip(LEGACY_HEADER, message));
+            assertEquals(message, roundTrip(TOKENIZED_HEADER, message));
+            assertThrows(IOException.class, () -> decompress(bytes(0x40, 0, 5, 'a')));
+        }
+
+        collectLeaks();
+        assertEquals(List.of(), LEAKS);
+
+        // Make sure the detector actually works, or the check above proves nothing
+        Unpooled.buffer(16).writeByte(1);
+        for(int i = 0; i < 20 && LEAKS.isEmpty(); i++) {
+            collectLeaks();
+        }
+        assertFalse(LEAKS.isEmpty(), "Leak detector never reported a leaked buffer");
+    }
+
+    private static void assertWireFormat(byte[] header, String message, int... expected) throws IOException {
+        assertWireFormat(header, message, bytes(expected));
+    }
+
+    private static void assertWireFormat(byte[] header, String message, byte[] expected) throws IOException {
+        byte[] compressed = Compression.COMPRESSION_CUSTOM.compress(header, message.getBytes(StandardCharsets.UTF_8), dictionary);
+        assertArrayEquals(expected, compressed, message);
+        assertEquals(message, decompress(compressed));
+    }
+
+    private static void assertMalformed(int... data) {
+        assertThrows(IOException.class, () -> decompress(bytes(data)), Arrays.toString(data));
+    }
+
+    private static String roundTrip(byte[] header, String message) throws IOException {
+        return decompress(Compression.COMPRESSION_CUSTOM.compress(header, message.getBytes(StandardCharsets.UTF_8), dictionary));
+    }
+
+    private static String decompress(byte[] data) throws IOException {
+        ByteSink out = new ByteSink(64, Compression.MAX_DECOMPRESSION_SIZE);
+        Compression.COMPRESSION_CUSTOM.decompress(data, 0, data.length, out, dictionary);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for(int i = 0; i < values.length; i++)
+            bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    /**
+     * Detector only checks for collected buffers when it tracks a new one.
+     */
+    private static void collectLeaks() throws InterruptedException {
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            ByteBuf buffer = Unpooled.buffer(1);
+            buffer.release();
+        }
+    }
+
+    private static class RecordingLeakDetectorFactory extends ResourceLeakDetectorFactory {
+        @Override
+        @SuppressWarnings("deprecation")
+        public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval, long maxActive) {
+            return new ResourceLeakDetector<>(resource, samplingInterval) {
+                @Override
+                protected boolean needReport() {
+                    return true;
+                }
+
+                @Override
+                protected void reportTracedLeak(String resourceType, String records) {
+                    LEAKS.add(resourceType + records);
+                }
+
+                @Override
+                protected void reportUntracedLeak(String resourceType) {
+                    LEAKS.add(resourceType);
+                }
+            };
+        }
+    }
+
+}